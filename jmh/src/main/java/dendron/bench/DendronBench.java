@@ -0,0 +1,868 @@
+package dendron.bench;
+
+import dendron.Output;
+import dendron.OutputSink;
+import dendron.jit.CompiledProgram;
+import dendron.jit.JitCompiler;
+import dendron.machine.BatchMachine;
+import dendron.machine.Bytecode;
+import dendron.machine.Code;
+import dendron.machine.InstructionReader;
+import dendron.machine.Machine;
+import dendron.machine.MachinePool;
+import dendron.machine.MachineStats;
+import dendron.machine.ObjectFile;
+import dendron.machine.RegisterCode;
+import dendron.machine.RegisterMachine;
+import dendron.machine.Superinstructions;
+import dendron.machine.SymbolTable;
+import dendron.machine.TraceBuffer;
+import dendron.tree.Closures;
+import dendron.tree.Lexer;
+import dendron.tree.ParseTree;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Scanner;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.function.BiConsumer;
+
+/**
+ * Rough timing and allocation measurements for the Dendron system.
+ * Each suite warms up, then reports time and bytes allocated per
+ * operation on a synthetic program. Run with no arguments to get the
+ * list of suites.
+ * <p>
+ * The parse, display, interpret, compile, assemble and execute suites
+ * cover the whole system on the source/ and assy/ corpora (see
+ * {@link Programs} for where they are found) and on synthetic programs
+ * from 10 tokens up to a million, or to -Ddendron.bench.maxTokens.
+ * <p>
+ * This is a quick way to compare one change with another. The figures
+ * to quote come from the JMH benchmarks beside it, which cover the same
+ * work up to 10 million tokens with proper forking and warmup. After
+ * {@code mvn package}, run this with
+ * {@code java -cp jmh/target/benchmarks.jar dendron.bench.DendronBench}
+ * and those with {@code java -jar jmh/target/benchmarks.jar -prof gc},
+ * both from the project directory.
+ */
+public class DendronBench {
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int TIMED_ROUNDS = 10;
+
+    /**
+     * The largest synthetic program the scaled suites use, in tokens;
+     * set the dendron.bench.maxTokens property to change it
+     */
+    private static final int MAX_TOKENS = Integer.getInteger("dendron.bench.maxTokens", 1_000_000);
+
+    private static final PrintStream QUIET = new PrintStream(OutputStream.nullOutputStream());
+
+    private static final Map<String, Runnable> SUITES = new LinkedHashMap<>();
+
+    static {
+        SUITES.put("machine", DendronBench::machine);
+        SUITES.put("pool", DendronBench::pool);
+        SUITES.put("bytecode", DendronBench::bytecode);
+        SUITES.put("load", DendronBench::load);
+        SUITES.put("superinstructions", DendronBench::superinstructions);
+        SUITES.put("registers", DendronBench::registers);
+        SUITES.put("jit", DendronBench::jit);
+        SUITES.put("closures", DendronBench::closures);
+        SUITES.put("batch", DendronBench::batch);
+        SUITES.put("output", DendronBench::output);
+        SUITES.put("stats", DendronBench::stats);
+        SUITES.put("trace", DendronBench::trace);
+        SUITES.put("lex", DendronBench::lex);
+        SUITES.put("simplify", DendronBench::simplify);
+        SUITES.put("cse", DendronBench::cse);
+        SUITES.put("parse", DendronBench::parse);
+        SUITES.put("display", DendronBench::display);
+        SUITES.put("interpret", DendronBench::interpret);
+        SUITES.put("compile", DendronBench::compile);
+        SUITES.put("assemble", DendronBench::assemble);
+        SUITES.put("execute", DendronBench::execute);
+        SUITES.put("deep", DendronBench::deep);
+    }
+
+    /**
+     * Run the named suites, or all of them if "all" is given.
+     *
+     * @param args suite names
+     */
+    public static void main(String... args) {
+        if (args.length == 0) {
+            System.err.println("Usage: java DendronBench all | suite...");
+            System.err.println("Suites: " + SUITES.keySet());
+            System.exit(1);
+        }
+        List<String> names = args[0].equals("all") ?
+                new ArrayList<>(SUITES.keySet()) : Arrays.asList(args);
+        for (String name : names) {
+            Runnable suite = SUITES.get(name);
+            if (suite == null) {
+                System.err.println("Unknown suite " + name);
+                System.exit(2);
+            }
+            System.out.println("== " + name);
+            suite.run();
+        }
+    }
+
+    /**
+     * Execution of compiled code on the stack machine.
+     */
+    private static void machine() {
+        List<Machine.Instruction> code = new ParseTree(Programs.statements(20_000)).compile();
+        Machine machine = new Machine();
+        measure("Machine.run", code.size(), () -> machine.run(code));
+    }
+
+    /**
+     * The object-per-instruction engine against the switch loop over
+     * Bytecode, on the same program.
+     */
+    private static void bytecode() {
+        List<Machine.Instruction> code = new ParseTree(Programs.statements(20_000)).compile();
+        Bytecode encoded = Bytecode.from(code);
+        Machine machine = new Machine();
+        measure("Machine.run(List)", code.size(), () -> machine.run(code));
+        measure("Machine.run(Bytecode)", encoded.instructionCount(),
+                () -> machine.run(encoded));
+    }
+
+    /**
+     * Loading a large program: assembling its text against mapping
+     * its object file.
+     */
+    private static void load() {
+        List<Machine.Instruction> code = new ParseTree(Programs.statements(200_000)).compile();
+        try {
+            Path text = Files.createTempFile("dendron", ".denm");
+            Path object = Files.createTempFile("dendron", ObjectFile.EXTENSION);
+            Files.writeString(text, Programs.assembly(code));
+            ObjectFile.write(Bytecode.from(code), object);
+            System.out.printf("%d instructions: %d bytes of text, %d bytes of object%n",
+                    code.size(), Files.size(text), Files.size(object));
+            measure("InstructionReader.assemble", code.size(),
+                    () -> InstructionReader.assemble(text.toString()));
+            measure("ObjectFile.load", code.size(), () -> {
+                try {
+                    ObjectFile.load(object);
+                }
+                catch (IOException ioe) {
+                    throw new UncheckedIOException(ioe);
+                }
+            });
+            Files.delete(text);
+            Files.delete(object);
+        }
+        catch (IOException ioe) {
+            throw new UncheckedIOException(ioe);
+        }
+    }
+
+    /**
+     * Dispatches saved by superinstructions chosen from a profile of
+     * the assy/ and source/ corpora, and the effect on run time.
+     */
+    private static void superinstructions() {
+        List<List<Machine.Instruction>> corpus = Programs.corpus();
+        List<Machine.Instruction> big = new ParseTree(Programs.statements(20_000)).compile();
+        corpus.add(big);
+        Superinstructions.Profile profile = new Superinstructions.Profile();
+        Machine machine = new Machine();
+        quietly(() -> corpus.forEach(program -> profile.run(machine, program)));
+        Set<Superinstructions.Pattern> chosen = Superinstructions.select(profile, 8);
+        Superinstructions pass = new Superinstructions(chosen);
+        long before = 0;
+        long after = 0;
+        for (List<Machine.Instruction> program : corpus) {
+            before += program.size();
+            after += pass.rewrite(program).size();
+        }
+        System.out.printf("corpus: %d programs, %d -> %d dispatches (%.1f%% saved)%n",
+                corpus.size(), before, after, 100.0 * (before - after) / before);
+        List<Machine.Instruction> fused = pass.rewrite(big);
+        System.out.println(pass.report());
+        measure("Machine.run plain", big.size(), () -> machine.run(big));
+        measure("Machine.run fused", big.size(), () -> machine.run(fused));
+    }
+
+    /**
+     * The stack machine against the register machine on the same
+     * parse tree. Times are per statement, since the two do not
+     * execute the same number of instructions.
+     */
+    private static void registers() {
+        final int statements = 20_000;
+        ParseTree tree = new ParseTree(Programs.statements(statements));
+        List<Machine.Instruction> stackCode = tree.compile();
+        Bytecode bytecode = Bytecode.from(stackCode);
+        RegisterCode registerCode = tree.compileRegisters();
+        System.out.printf("%d statements: %d stack instructions, %d register instructions" +
+                        " using %d registers%n", statements, stackCode.size(),
+                registerCode.instructionCount(), registerCode.registerCount());
+        Machine machine = new Machine();
+        RegisterMachine registerMachine = new RegisterMachine();
+        measure("Machine.run(List) /stmt", statements, () -> machine.run(stackCode));
+        measure("Machine.run(Bytecode) /stmt", statements, () -> machine.run(bytecode));
+        measure("RegisterMachine.run /stmt", statements,
+                () -> registerMachine.run(registerCode));
+    }
+
+    /**
+     * Compiled JVM code against the tree interpreter and the Machine,
+     * on a long program and on a short one run over and over, with
+     * the cost of compiling.
+     */
+    private static void jit() {
+        final int statements = 20_000;
+        ParseTree tree = new ParseTree(Programs.statements(statements));
+        List<Machine.Instruction> code = tree.compile();
+        Bytecode bytecode = Bytecode.from(code);
+        CompiledProgram compiled = JitCompiler.compile(bytecode);
+        int[] variables = compiled.newVariables();
+        Machine machine = new Machine();
+        measure("interpret /stmt", statements, () -> quietly(tree::interpret));
+        measure("Machine.run(List) /stmt", statements, () -> machine.run(code));
+        measure("Machine.run(Bytecode) /stmt", statements, () -> machine.run(bytecode));
+        measure("JIT run /stmt", statements, () -> compiled.run(variables));
+        measure("JitCompiler.compile /stmt", statements, () -> JitCompiler.compile(bytecode));
+
+        final int runs = 100_000;
+        ParseTree small = new ParseTree(Programs.statements(10));
+        List<Machine.Instruction> smallCode = small.compile();
+        CompiledProgram smallCompiled = JitCompiler.compile(smallCode);
+        int[] smallVariables = smallCompiled.newVariables();
+        measure("Machine.run(List) 10 stmts /run", runs, () -> {
+            for (int i = 0; i < runs; i++) {
+                machine.run(smallCode);
+            }
+        });
+        measure("JIT run 10 stmts /run", runs, () -> {
+            for (int i = 0; i < runs; i++) {
+                smallCompiled.run(smallVariables);
+            }
+        });
+    }
+
+    /**
+     * The tree interpreter's evaluate(Map) path against the same tree
+     * compiled into closures, with the cost of compiling.
+     */
+    private static void closures() {
+        final int statements = 20_000;
+        ParseTree tree = new ParseTree(Programs.statements(statements));
+        Closures closures = tree.compileClosures();
+        int[] frame = closures.newFrame();
+        measure("interpret /stmt", statements, () -> quietly(tree::interpret));
+        measure("Closures.run /stmt", statements, () -> closures.run(frame));
+        measure("compileClosures /stmt", statements, tree::compileClosures);
+    }
+
+    /**
+     * The quadratic-root formula over many rows of a, b and c, in
+     * batches against one row at a time on a Machine.
+     */
+    private static void batch() {
+        final int rows = 200_000;
+        List<String> tokens = new LinkedList<>(Arrays.asList(
+                ":=", "root", "/", "+", "_", "b", "#", "-", "*",
+                "b", "b", "*", "*", "4", "a", "c", "*", "2", "a",
+                ":=", "root2", "/", "-", "_", "b", "#", "-", "*",
+                "b", "b", "*", "*", "4", "a", "c", "*", "2", "a"));
+        Code code = Code.link(new ParseTree(tokens).compile());
+        Map<String, int[]> inputs = new LinkedHashMap<>();
+        Random random = new Random(42);
+        int[] a = new int[rows];
+        int[] b = new int[rows];
+        int[] c = new int[rows];
+        for (int i = 0; i < rows; i++) {
+            a[i] = 1 + random.nextInt(9);
+            b[i] = random.nextInt(2001) - 1000;
+            c[i] = -random.nextInt(1000);
+        }
+        inputs.put("a", a);
+        inputs.put("b", b);
+        inputs.put("c", c);
+        SymbolTable symbols = code.symbols();
+        Machine.Instruction[] stores = {
+                new Machine.Store("a", symbols.find("a")),
+                new Machine.Store("b", symbols.find("b")),
+                new Machine.Store("c", symbols.find("c"))};
+        Machine machine = new Machine();
+        measure("Machine row at a time /row", rows, () -> {
+            for (int i = 0; i < rows; i++) {
+                machine.start(symbols);
+                machine.step(new Machine.PushConst(a[i]));
+                machine.step(stores[0]);
+                machine.step(new Machine.PushConst(b[i]));
+                machine.step(stores[1]);
+                machine.step(new Machine.PushConst(c[i]));
+                machine.step(stores[2]);
+                for (Machine.Instruction instr : code) {
+                    machine.step(instr);
+                }
+                machine.finish();
+                machine.symbolTable();
+            }
+        });
+        BatchMachine batch = new BatchMachine(code);
+        measure("BatchMachine /row", rows, () -> batch.run(inputs));
+    }
+
+    /**
+     * A program that does little but print, run with each kind of
+     * output sink. Standard output is thrown away, so the times are
+     * for formatting and writing, not for a terminal.
+     */
+    private static void output() {
+        final int prints = 100_000;
+        Code code = new Code();
+        for (int i = 0; i < prints; i++) {
+            code.add(new Machine.PushConst(i * 7919));
+            code.add(Machine.PRINT);
+        }
+        Bytecode bytecode = Bytecode.from(code);
+        Machine machine = new Machine();
+        OutputSink standard = new Output.Standard();
+        machine.setOutput(standard);
+        measure("standard /print", prints, () -> quietly(() -> machine.run(bytecode)));
+        OutputStream nowhere = OutputStream.nullOutputStream();
+        Output.Buffered buffered = new Output.Buffered(nowhere);
+        machine.setOutput(buffered);
+        measure("buffered /print", prints, () -> {
+            machine.run(bytecode);
+            buffered.flush();
+        });
+        Output.Collector collector = new Output.Collector();
+        machine.setOutput(collector);
+        measure("collector /print", prints, () -> {
+            collector.clear();
+            machine.run(bytecode);
+        });
+        machine.setOutput(new Output.Discard());
+        measure("discard /print", prints, () -> machine.run(bytecode));
+        System.out.printf("standard: %d bytes, %d flushes; buffered: %d bytes, %d flushes%n",
+                standard.bytesWritten(), standard.flushes(),
+                buffered.bytesWritten(), buffered.flushes());
+    }
+
+    /**
+     * The cost of counting with MachineStats: both Machine loops with
+     * counting off, on, and off again, so that the first and last
+     * rows can be compared.
+     */
+    private static void stats() {
+        final int statements = 20_000;
+        List<Machine.Instruction> code = new ParseTree(Programs.statements(statements)).compile();
+        Bytecode bytecode = Bytecode.from(code);
+        Machine machine = new Machine();
+        MachineStats.disable();
+        // The first rows would otherwise be paying for compilation.
+        for (int i = 0; i < 50; i++) {
+            machine.run(code);
+            machine.run(bytecode);
+        }
+        measure("run(List) stats off", code.size(), () -> machine.run(code));
+        measure("run(Bytecode) stats off", code.size(), () -> machine.run(bytecode));
+        MachineStats stats = MachineStats.enable();
+        measure("run(List) stats on", code.size(), () -> machine.run(code));
+        measure("run(Bytecode) stats on", code.size(), () -> machine.run(bytecode));
+        System.out.printf("%d programs, %d instructions, stack high water %d, %d symbols%n",
+                stats.getPrograms(), stats.getInstructions(),
+                stats.getStackHighWater(), stats.getMaxSymbols());
+        System.out.println(stats.getOpcodeCounts());
+        MachineStats.disable();
+        measure("run(List) stats off again", code.size(), () -> machine.run(code));
+        measure("run(Bytecode) stats off again", code.size(), () -> machine.run(bytecode));
+    }
+
+    /**
+     * The cost of tracing into a TraceBuffer, for both Machine loops.
+     * Tracing should allocate nothing.
+     */
+    private static void trace() {
+        final int statements = 20_000;
+        List<Machine.Instruction> code = new ParseTree(Programs.statements(statements)).compile();
+        Bytecode bytecode = Bytecode.from(code);
+        Machine machine = new Machine();
+        for (int i = 0; i < 50; i++) {
+            machine.run(code);
+            machine.run(bytecode);
+        }
+        measure("run(List) trace off", code.size(), () -> machine.run(code));
+        measure("run(Bytecode) trace off", code.size(), () -> machine.run(bytecode));
+        machine.setTrace(new TraceBuffer(1024));
+        measure("run(List) trace on", code.size(), () -> machine.run(code));
+        measure("run(Bytecode) trace on", code.size(), () -> machine.run(bytecode));
+        machine.setTrace(null);
+    }
+
+    /**
+     * Splitting source text into classified tokens with the Lexer,
+     * against a Scanner with the regular expressions the parser used to
+     * classify tokens, and parsing text against parsing a token list.
+     */
+    private static void lex() {
+        scaled((label, tokens) -> {
+            String text = String.join(" ", tokens);
+            repeated(label + " Lexer /token", tokens.size(), () -> {
+                Lexer lexer = new Lexer(text);
+                int kinds = 0;
+                while (lexer.next()) {
+                    kinds += lexer.type().ordinal();
+                }
+                consume(kinds);
+            });
+            repeated(label + " Scanner+regex /token", tokens.size(), () -> {
+                Scanner scanner = new Scanner(text);
+                int kinds = 0;
+                while (scanner.hasNext()) {
+                    String token = scanner.next();
+                    if (token.matches("^[a-zA-Z].*")) {
+                        kinds++;
+                    }
+                    else if (token.matches("[-+]?\\d+")) {
+                        kinds += Integer.parseInt(token);
+                    }
+                }
+                consume(kinds);
+            });
+            repeated(label + " parse text /token", tokens.size(),
+                    () -> new ParseTree(text));
+            repeated(label + " parse list /token", tokens.size(),
+                    () -> new ParseTree(tokens));
+        });
+    }
+
+    /**
+     * ParseTree.simplify on the source/ corpus, and interpreting and
+     * executing the programs with and without it.
+     */
+    private static void simplify() {
+        List<List<String>> sources = Programs.tokens(Programs.SOURCE);
+        measure(sources.size() + " source/ programs parse+simplify /tree", sources.size(),
+                () -> sources.forEach(tokens -> new ParseTree(tokens).simplify()));
+        List<ParseTree> trees = trees(sources);
+        List<ParseTree> simplified = trees(sources);
+        int eliminated = 0;
+        for (ParseTree tree : simplified) {
+            eliminated += tree.simplify();
+        }
+        System.out.println(eliminated + " nodes eliminated");
+        measure("interpret /tree", trees.size(),
+                () -> quietly(() -> trees.forEach(ParseTree::interpret)));
+        measure("interpret simplified /tree", simplified.size(),
+                () -> quietly(() -> simplified.forEach(ParseTree::interpret)));
+        Machine machine = new Machine();
+        machine.setOutput(new Output.Discard());
+        for (List<ParseTree> programs : Arrays.asList(trees, simplified)) {
+            List<Code> code = new ArrayList<>();
+            long instructions = 0;
+            for (ParseTree tree : programs) {
+                code.add(Code.link(tree.compile()));
+                instructions += code.get(code.size() - 1).size();
+            }
+            measure((programs == trees ? "" : "simplified ") + instructions + " instrs run /program",
+                    code.size(), () -> code.forEach(machine::run));
+        }
+    }
+
+    /**
+     * Sharing identical subexpressions, on programs that solve the same
+     * few quadratics over and over: how many nodes the parser shares,
+     * how many instructions eliminating common subexpressions saves,
+     * and running the programs with and without it.
+     */
+    private static void cse() {
+        Machine machine = new Machine();
+        machine.setOutput(new Output.Discard());
+        for (long size = 10; size <= MAX_TOKENS; size *= 10) {
+            List<String> tokens = quadratics((int) size);
+            String label = String.format("%,d tokens", tokens.size());
+            ParseTree tree = new ParseTree(tokens);
+            Code before = Code.link(tree.compile());
+            int removed = tree.eliminateCommonSubexpressions();
+            Code after = Code.link(tree.compile());
+            System.out.printf("%s: %,d nodes shared, %,d evaluations removed, %,d -> %,d instrs%n",
+                    label, tree.sharedNodes(), removed, before.size(), after.size());
+            repeated(label + " parse+cse /token", tokens.size(),
+                    () -> new ParseTree(tokens).eliminateCommonSubexpressions());
+            repeated(label + " run /token", tokens.size(), () -> machine.run(before));
+            repeated(label + " run after cse /token", tokens.size(), () -> machine.run(after));
+        }
+    }
+
+    /**
+     * Building parse trees, from the source/ corpus and from synthetic
+     * programs of growing size, held in array-backed and in linked lists.
+     */
+    private static void parse() {
+        List<List<String>> sources = Programs.tokens(Programs.SOURCE);
+        measure(sources.size() + " source/ programs /token", tokenCount(sources),
+                () -> sources.forEach(tokens -> new ParseTree(tokens)));
+        scaled((label, tokens) -> {
+            repeated(label + " ArrayList /token", tokens.size(),
+                    () -> new ParseTree(tokens));
+            List<String> linked = new LinkedList<>(tokens);
+            repeated(label + " LinkedList /token", tokens.size(),
+                    () -> new ParseTree(linked));
+        });
+    }
+
+    /**
+     * ParseTree.displayProgram, with standard output thrown away.
+     */
+    private static void display() {
+        List<ParseTree> trees = trees(Programs.tokens(Programs.SOURCE));
+        measure(trees.size() + " source/ programs /tree", trees.size(),
+                () -> quietly(() -> trees.forEach(ParseTree::displayProgram)));
+        scaled((label, tokens) -> {
+            ParseTree tree = new ParseTree(tokens);
+            repeated(label + " /token", tokens.size(), () -> quietly(tree::displayProgram));
+        });
+    }
+
+    /**
+     * ParseTree.interpret, with standard output thrown away; and
+     * parsing source text then interpreting it, against interpreting
+     * it a statement at a time while it is read.
+     */
+    private static void interpret() {
+        List<ParseTree> trees = trees(Programs.tokens(Programs.SOURCE));
+        measure(trees.size() + " source/ programs /tree", trees.size(),
+                () -> quietly(() -> trees.forEach(ParseTree::interpret)));
+        scaled((label, tokens) -> {
+            ParseTree tree = new ParseTree(tokens);
+            repeated(label + " /token", tokens.size(), () -> quietly(tree::interpret));
+            String text = String.join(" ", tokens);
+            repeated(label + " parse, then run /token", tokens.size(),
+                    () -> quietly(() -> new ParseTree(text).interpret()));
+            repeated(label + " streamed /token", tokens.size(), () -> quietly(() -> {
+                try {
+                    ParseTree.interpret(new StringReader(text));
+                }
+                catch (IOException ioe) {
+                    throw new UncheckedIOException(ioe);
+                }
+            }));
+        });
+    }
+
+    /**
+     * ParseTree.compile, on the source/ corpus, on synthetic programs,
+     * and on single expressions nested deeper and deeper.
+     */
+    private static void compile() {
+        List<ParseTree> trees = trees(Programs.tokens(Programs.SOURCE));
+        measure(trees.size() + " source/ programs /tree", trees.size(),
+                () -> trees.forEach(ParseTree::compile));
+        scaled((label, tokens) -> {
+            ParseTree tree = new ParseTree(tokens);
+            repeated(label + " /token", tokens.size(), tree::compile);
+        });
+        for (int depth = 10; depth <= 1000; depth *= 10) {
+            List<String> tokens = nested(depth);
+            ParseTree tree = new ParseTree(tokens);
+            repeated(String.format("depth %,d /token", depth), tokens.size(), tree::compile);
+        }
+    }
+
+    /**
+     * InstructionReader.assemble, on the assy/ corpus and on the
+     * compiled synthetic programs written out as assembly.
+     */
+    private static void assemble() {
+        List<File> assembly = Programs.assemblyFiles();
+        measure(assembly.size() + " assy/ files /file", assembly.size(), () -> {
+            for (File file : assembly) {
+                InstructionReader.assemble(file.getPath());
+            }
+        });
+        scaled((label, tokens) -> {
+            List<Machine.Instruction> code = new ParseTree(tokens).compile();
+            try {
+                Path text = Files.createTempFile("dendron", ".denm");
+                Files.writeString(text, Programs.assembly(code));
+                repeated(label + " /instr", code.size(),
+                        () -> InstructionReader.assemble(text.toString()));
+                Files.delete(text);
+            }
+            catch (IOException ioe) {
+                throw new UncheckedIOException(ioe);
+            }
+        });
+    }
+
+    /**
+     * Machine.execute, report and all, with standard output thrown away.
+     */
+    private static void execute() {
+        List<List<Machine.Instruction>> corpus = Programs.corpus();
+        measure(corpus.size() + " corpus programs /program", corpus.size(),
+                () -> quietly(() -> corpus.forEach(Machine::execute)));
+        scaled((label, tokens) -> {
+            List<Machine.Instruction> code = new ParseTree(tokens).compile();
+            repeated(label + " /instr", code.size(), () -> quietly(() -> Machine.execute(code)));
+        });
+    }
+
+    /**
+     * Parsing, interpreting, compiling and displaying a single expression
+     * nested up to a million deep, on the default thread stack.
+     */
+    private static void deep() {
+        for (int depth = 1000; depth <= 1_000_000; depth *= 10) {
+            List<String> tokens = nested(depth);
+            String label = String.format("depth %,d", depth);
+            ParseTree tree = new ParseTree(tokens);
+            repeated(label + " parse /token", tokens.size(), () -> new ParseTree(tokens));
+            repeated(label + " interpret /token", tokens.size(), () -> quietly(tree::interpret));
+            repeated(label + " compile /token", tokens.size(), tree::compile);
+            repeated(label + " display /token", tokens.size(), () -> quietly(tree::displayProgram));
+        }
+    }
+
+    /**
+     * Run a measurement on synthetic programs of 10 tokens, 100 tokens,
+     * and so on up to {@link #MAX_TOKENS}.
+     *
+     * @param suite what to measure, given a label and a program
+     */
+    private static void scaled(BiConsumer<String, List<String>> suite) {
+        for (long size = 10; size <= MAX_TOKENS; size *= 10) {
+            List<String> tokens = Programs.synthetic((int) size);
+            suite.accept(String.format("%,d tokens", tokens.size()), tokens);
+        }
+    }
+
+    /**
+     * @param programs some token lists, which are left as they are
+     * @return their parse trees
+     */
+    private static List<ParseTree> trees(List<List<String>> programs) {
+        List<ParseTree> trees = new ArrayList<>();
+        for (List<String> tokens : programs) {
+            trees.add(new ParseTree(tokens));
+        }
+        return trees;
+    }
+
+    /**
+     * @param programs some token lists
+     * @return how many tokens they have in all
+     */
+    private static long tokenCount(List<List<String>> programs) {
+        long count = 0;
+        for (List<String> tokens : programs) {
+            count += tokens.size();
+        }
+        return count;
+    }
+
+    /**
+     * Do some work with standard output thrown away.
+     *
+     * @param work what to do
+     */
+    static void quietly(Runnable work) {
+        PrintStream out = System.out;
+        System.setOut(QUIET);
+        try {
+            work.run();
+        }
+        finally {
+            System.setOut(out);
+        }
+    }
+
+    /**
+     * Throughput of many small programs run in parallel, as the
+     * number of threads goes up to the number of processors (and on to
+     * 4 threads, where there are fewer). Then the same with one program
+     * in a hundred failing, which must cost the others nothing.
+     */
+    private static void pool() {
+        final int programs = 20_000;
+        List<List<Machine.Instruction>> batch = new ArrayList<>(programs);
+        for (int i = 0; i < programs; i++) {
+            batch.add(new ParseTree(Programs.statements(100 + i % 50)).compile());
+        }
+        int cores = Runtime.getRuntime().availableProcessors();
+        int most = Math.max(cores, 4);
+        double single = 0;
+        for (int threads = 1; threads <= most; threads = nextThreadCount(threads, most)) {
+            try (MachinePool pool = new MachinePool(threads)) {
+                for (int i = 0; i < WARMUP_ROUNDS; i++) {
+                    pool.runAll(batch);
+                }
+                long start = System.nanoTime();
+                for (int i = 0; i < TIMED_ROUNDS; i++) {
+                    pool.runAll(batch);
+                }
+                double rate = (double) programs * TIMED_ROUNDS * 1e9 /
+                        (System.nanoTime() - start);
+                if (threads == 1) {
+                    single = rate;
+                }
+                System.out.printf("MachinePool %3d threads %14.0f programs/s %6.2fx%n",
+                        threads, rate, rate / single);
+            }
+            catch (ExecutionException | InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        List<Machine.Instruction> failing = new ParseTree(Arrays.asList("@", "undefined")).compile();
+        for (int i = 0; i < programs; i += 100) {
+            batch.set(i, failing);
+        }
+        try (MachinePool pool = new MachinePool(cores)) {
+            int failures = 0;
+            long start = 0;
+            for (int round = 0; round < WARMUP_ROUNDS + TIMED_ROUNDS; round++) {
+                if (round == WARMUP_ROUNDS) {
+                    start = System.nanoTime();
+                    failures = 0;
+                }
+                List<Future<Map<String, Integer>>> results = new ArrayList<>(programs);
+                for (List<Machine.Instruction> program : batch) {
+                    results.add(pool.submit(program));
+                }
+                for (Future<Map<String, Integer>> result : results) {
+                    try {
+                        result.get();
+                    }
+                    catch (ExecutionException e) {
+                        failures++;
+                    }
+                }
+            }
+            double rate = (double) programs * TIMED_ROUNDS * 1e9 / (System.nanoTime() - start);
+            System.out.printf("MachinePool %3d threads %14.0f programs/s %6d failed%n",
+                    cores, rate, failures);
+        }
+        catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Double the thread count, but never skip over the largest.
+     */
+    private static int nextThreadCount(int threads, int most) {
+        return threads < most && threads * 2 > most ? most : threads * 2;
+    }
+
+    /**
+     * @param depth how deeply the expression should be nested
+     * @return a program that prints one expression, x + (x + (x + ...)),
+     * with that many additions, as an array-backed list
+     */
+    static List<String> nested(int depth) {
+        List<String> tokens = new ArrayList<>(Arrays.asList(":=", "x", "1", "@"));
+        for (int i = 0; i < depth; i++) {
+            tokens.add("+");
+            tokens.add("x");
+        }
+        tokens.add("x");
+        return tokens;
+    }
+
+    /**
+     * Keep a result, so that the work computing it is not optimized away.
+     *
+     * @param result the result
+     */
+    private static void consume(int result) {
+        if (result == 42) {
+            QUIET.print(result);
+        }
+    }
+
+    /**
+     * @param tokens about how many tokens the program should have
+     * @return a program that sets the coefficients of 16 quadratics,
+     * then finds their roots again and again, as an array-backed list
+     */
+    static List<String> quadratics(int tokens) {
+        final int equations = 16;
+        List<String> program = new ArrayList<>();
+        for (int k = 0; k < equations; k++) {
+            program.addAll(Arrays.asList(":=", "a" + k, Integer.toString(k + 1),
+                    ":=", "b" + k, Integer.toString(10 * k + 20),
+                    ":=", "c" + k, Integer.toString(k + 2)));
+        }
+        for (int i = 0; program.size() < tokens; i++) {
+            String a = "a" + i % equations;
+            String b = "b" + i % equations;
+            String c = "c" + i % equations;
+            program.addAll(Arrays.asList(":=", "root" + i % 64, "/",
+                    i % 2 == 0 ? "+" : "-", "_", b, "#", "-", "*", b, b, "*", "*", "4", a, c,
+                    "*", "2", a));
+        }
+        return program;
+    }
+
+    /**
+     * Time a small piece of work, repeating it so that each round
+     * is at least 100,000 operations.
+     *
+     * @param label what to call the work in the report
+     * @param ops   how many operations one run of the work represents
+     * @param work  the work itself
+     */
+    static void repeated(String label, long ops, Runnable work) {
+        int times = (int) Math.max(1, 100_000 / ops);
+        measure(label, ops * times, () -> {
+            for (int i = 0; i < times; i++) {
+                work.run();
+            }
+        });
+    }
+
+    /**
+     * Time a piece of work and the memory it allocates.
+     *
+     * @param label what to call the work in the report
+     * @param ops   how many operations one run of the work represents
+     * @param work  the work itself
+     */
+    static void measure(String label, long ops, Runnable work) {
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            work.run();
+        }
+        long bytes = THREADS.getCurrentThreadAllocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < TIMED_ROUNDS; i++) {
+            work.run();
+        }
+        long nanos = System.nanoTime() - start;
+        bytes = THREADS.getCurrentThreadAllocatedBytes() - bytes;
+        double total = (double) ops * TIMED_ROUNDS;
+        System.out.printf("%-32s %10.2f ns/op %10.2f B/op %14.0f ops/s%n",
+                label, nanos / total, bytes / total, total * 1e9 / nanos);
+    }
+}
@@ -0,0 +1,99 @@
+package dendron.bench;
+
+import dendron.machine.InstructionReader;
+import dendron.machine.Machine;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The Machine's work on the source/ corpus compiled, the assy/ corpus,
+ * and synthetic programs from 10 to 10 million tokens compiled:
+ * assembling a program from its text, and executing it with the usual
+ * report. Each operation covers every program of the corpus, or the
+ * one synthetic program. What the programs print is thrown away.
+ * <p>
+ * Run with {@code java -jar jmh/target/benchmarks.jar -prof gc
+ * MachineBenchmarks} from the project directory, to see the bytes
+ * allocated per operation as well as the time.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class MachineBenchmarks {
+
+    /**
+     * "source", "assy", or a number of tokens
+     */
+    @Param({"source", "assy", "10", "100", "1000", "10000", "100000", "1000000", "10000000"})
+    public String program;
+
+    private List<String> texts;
+    private List<List<Machine.Instruction>> code;
+    private PrintStream out;
+
+    /**
+     * Read or make the programs, and assemble them.
+     *
+     * @throws IOException never, since the text is in memory
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        texts = Programs.assembly(program);
+        code = new ArrayList<>();
+        for (String text : texts) {
+            code.add(InstructionReader.assemble(new StringReader(text)));
+        }
+        out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    /**
+     * Put standard output back.
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        System.setOut(out);
+    }
+
+    /**
+     * @param blackhole where the assembled programs go
+     * @throws IOException never, since the text is in memory
+     */
+    @Benchmark
+    public void assemble(Blackhole blackhole) throws IOException {
+        for (String text : texts) {
+            blackhole.consume(InstructionReader.assemble(new StringReader(text)));
+        }
+    }
+
+    @Benchmark
+    public void execute() {
+        for (List<Machine.Instruction> program : code) {
+            Machine.execute(program);
+        }
+    }
+}
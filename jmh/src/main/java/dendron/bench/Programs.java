@@ -0,0 +1,196 @@
+package dendron.bench;
+
+import dendron.machine.InstructionReader;
+import dendron.machine.Machine;
+import dendron.tree.ParseTree;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Scanner;
+
+/**
+ * The programs the benchmarks run. A benchmark's program parameter is
+ * "source" for the programs in the source/ directory, "assy" for those
+ * in the assy/ directory, or a number of tokens for a synthetic program
+ * of about that size. The directories are looked for in the one named
+ * by the dendron.home property, or the current directory if it is not set.
+ * DendronBench takes its programs from here too.
+ */
+final class Programs {
+
+    /**
+     * The parameter value for the source/ corpus
+     */
+    static final String SOURCE = "source";
+
+    /**
+     * The parameter value for the assy/ corpus
+     */
+    static final String ASSY = "assy";
+
+    /**
+     * How many variables a synthetic program uses
+     */
+    private static final int VARS = 64;
+
+    private static final File HOME = new File(System.getProperty("dendron.home", "."));
+
+    private Programs() {
+    }
+
+    /**
+     * @param program a program parameter other than "assy"
+     * @return the programs it stands for, as token lists
+     * @throws IllegalArgumentException if it is "assy", or not a
+     *                                  parameter at all
+     */
+    static List<List<String>> tokens(String program) {
+        if (program.equals(SOURCE)) {
+            List<List<String>> programs = new ArrayList<>();
+            for (File file : files(SOURCE, ".txt")) {
+                List<String> tokens = new ArrayList<>();
+                try (Scanner in = new Scanner(file, StandardCharsets.UTF_8)) {
+                    in.forEachRemaining(tokens::add);
+                }
+                catch (IOException ioe) {
+                    throw new UncheckedIOException(ioe);
+                }
+                programs.add(tokens);
+            }
+            return programs;
+        }
+        if (program.equals(ASSY)) {
+            throw new IllegalArgumentException("The assy/ programs are not Dendron source");
+        }
+        return Collections.singletonList(synthetic(Integer.parseInt(program)));
+    }
+
+    /**
+     * @param program a program parameter
+     * @return the assembly language text of the programs it stands for;
+     * those given as source are compiled and written out
+     */
+    static List<String> assembly(String program) {
+        List<String> texts = new ArrayList<>();
+        if (program.equals(ASSY)) {
+            for (File file : assemblyFiles()) {
+                try {
+                    texts.add(new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+                }
+                catch (IOException ioe) {
+                    throw new UncheckedIOException(ioe);
+                }
+            }
+        }
+        else {
+            for (List<String> tokens : tokens(program)) {
+                texts.add(assembly(new ParseTree(tokens).compile()));
+            }
+        }
+        return texts;
+    }
+
+    /**
+     * @param code a program
+     * @return the program as assembly language text
+     */
+    static String assembly(List<Machine.Instruction> code) {
+        StringBuilder text = new StringBuilder();
+        for (Machine.Instruction instr : code) {
+            // The listing form of PUSH, LOAD and STORE is also their assembly form.
+            text.append(instr.opcode().hasOperand() ? instr.toString() : instr.opcode().name())
+                    .append('\n');
+        }
+        return text.toString();
+    }
+
+    /**
+     * @param tokens about how many tokens the program should have
+     * @return the program of {@link #statements(int)} that is about
+     * that size
+     */
+    static List<String> synthetic(int tokens) {
+        // The first 64 statements are 3 tokens long, the rest 13.
+        return statements(Math.max(1, tokens <= 3 * VARS ?
+                (tokens + 2) / 3 : VARS + (tokens - 3 * VARS + 12) / 13));
+    }
+
+    /**
+     * Build a program with the given number of statements. The first
+     * 64 give every variable a value; the rest combine them with every
+     * operator. Nothing is printed.
+     *
+     * @param statements how many statements to generate
+     * @return the program's tokens, as an array-backed list
+     */
+    static List<String> statements(int statements) {
+        String[] names = new String[VARS];
+        for (int v = 0; v < VARS; v++) {
+            names[v] = "v" + v;
+        }
+        List<String> program = new ArrayList<>();
+        for (int i = 0; i < statements; i++) {
+            program.add(":=");
+            program.add(names[i % VARS]);
+            if (i < VARS) {
+                program.add(Integer.toString(i + 1));
+            }
+            else {
+                String a = names[(i * 7) % VARS];
+                String b = names[(i * 13) % VARS];
+                program.addAll(Arrays.asList(
+                        "+", "*", a, "3", "-", "/", b, "7", "_", "#", a));
+            }
+        }
+        return program;
+    }
+
+    /**
+     * @return the programs in the assy/ directory, in order of their names
+     * @throws IllegalStateException if the directory is not there
+     */
+    static List<File> assemblyFiles() {
+        return files(ASSY, ".denm");
+    }
+
+    /**
+     * Compile every program in the source/ directory and assemble every
+     * one in the assy/ directory.
+     *
+     * @return the programs
+     * @throws IllegalStateException if either directory is not there
+     */
+    static List<List<Machine.Instruction>> corpus() {
+        List<List<Machine.Instruction>> programs = new ArrayList<>();
+        for (List<String> tokens : tokens(SOURCE)) {
+            programs.add(new ParseTree(tokens).compile());
+        }
+        for (File file : assemblyFiles()) {
+            programs.add(InstructionReader.assemble(file.getPath()));
+        }
+        return programs;
+    }
+
+    /**
+     * @param dir    a corpus directory
+     * @param suffix the end of the names of its programs
+     * @return its programs, in order of their names
+     * @throws IllegalStateException if the directory is not there
+     */
+    private static List<File> files(String dir, String suffix) {
+        File[] files = new File(HOME, dir).listFiles((d, name) -> name.endsWith(suffix));
+        if (files == null) {
+            throw new IllegalStateException("No " + dir + "/ directory in " +
+                    HOME.getAbsolutePath() + "; set -Ddendron.home");
+        }
+        Arrays.sort(files);
+        return Arrays.asList(files);
+    }
+}
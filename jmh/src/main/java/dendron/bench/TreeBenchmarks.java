@@ -0,0 +1,109 @@
+package dendron.bench;
+
+import dendron.tree.ParseTree;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The parse tree's work on the source/ corpus and on synthetic programs
+ * from 10 to 10 million tokens: building it, showing it, interpreting it
+ * and compiling it. Each operation covers every program of the corpus,
+ * or the one synthetic program. What the programs print is thrown away.
+ * <p>
+ * Run with {@code java -jar jmh/target/benchmarks.jar -prof gc
+ * TreeBenchmarks} from the project directory, to see the bytes
+ * allocated per operation as well as the time.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class TreeBenchmarks {
+
+    /**
+     * "source", or a number of tokens
+     */
+    @Param({"source", "10", "100", "1000", "10000", "100000", "1000000", "10000000"})
+    public String program;
+
+    private List<List<String>> tokens;
+    private List<ParseTree> trees;
+    private PrintStream out;
+
+    /**
+     * Read or make the programs, and parse them.
+     */
+    @Setup(Level.Trial)
+    public void setUp() {
+        tokens = Programs.tokens(program);
+        trees = new ArrayList<>();
+        for (List<String> t : tokens) {
+            trees.add(new ParseTree(t));
+        }
+        out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    /**
+     * Put standard output back.
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        System.setOut(out);
+    }
+
+    /**
+     * @param blackhole where the trees go
+     */
+    @Benchmark
+    public void parse(Blackhole blackhole) {
+        for (List<String> t : tokens) {
+            blackhole.consume(new ParseTree(t));
+        }
+    }
+
+    @Benchmark
+    public void displayProgram() {
+        for (ParseTree tree : trees) {
+            tree.displayProgram();
+        }
+    }
+
+    @Benchmark
+    public void interpret() {
+        for (ParseTree tree : trees) {
+            tree.interpret();
+        }
+    }
+
+    /**
+     * @param blackhole where the compiled programs go
+     */
+    @Benchmark
+    public void compile(Blackhole blackhole) {
+        for (ParseTree tree : trees) {
+            blackhole.consume(tree.compile());
+        }
+    }
+}
@@ -16,7 +16,7 @@ import java.util.Scanner;
  */
 public class DendronTest {
 
-    private static List< List< String > > programs = Arrays.asList(
+    static List< List< String > > programs = Arrays.asList(
             new LinkedList<>( Arrays.asList( ":=", "x", "55" ) ),
             new LinkedList<>( Arrays.asList(
                     ":=", "able", "77",
@@ -64,20 +64,28 @@ public class DendronTest {
      *             private stored tests, run the private test corresponding
      *             to that number; if other args, consider them tokens
      *             of a Dendron program and run tests on that program;
+     *             if "verify", followed by any arguments of
+     *             {@link DendronVerify#main(String...)}, check that the
+     *             optional passes change nothing a program does;
      *             if no arguments, read the source program from standard
      *             input.
      */
     public static void main( String... args ) {
-        List< String > tokenList;
+        List< String > tokenList = null;
+        StringBuilder source = null;
 
+        if ( args.length > 0 && args[ 0 ].equals( "verify" ) ) {
+            DendronVerify.main( Arrays.copyOfRange( args, 1, args.length ) );
+            return;
+        }
         if ( args.length == 0 ) {
-            tokenList = new LinkedList<>();
+            source = new StringBuilder();
             try ( Scanner text = new Scanner( System.in ) ) {
                 System.out.print("🌳 ");
                 while ( text.hasNextLine() ) {
                     String line = text.nextLine();
                     if ( line.equals( "." ) ) break; // For IntelliJ console
-                    tokenList.addAll(Arrays.asList(line.split(" ")));
+                    source.append( line ).append( '\n' );
                     System.out.print("🌳 ");
                 }
             }
@@ -132,7 +140,8 @@ public class DendronTest {
             tokenList = new LinkedList<>( Arrays.asList( args ) );
         }
 
-        ParseTree tree = new ParseTree( tokenList );
+        ParseTree tree = source != null ?
+                new ParseTree( source ) : new ParseTree( tokenList );
 
         tree.displayProgram();
 
@@ -0,0 +1,378 @@
+import dendron.Errors;
+import dendron.jit.JitCompiler;
+import dendron.machine.BatchMachine;
+import dendron.machine.Code;
+import dendron.machine.InstructionReader;
+import dendron.machine.Machine;
+import dendron.machine.Peephole;
+import dendron.machine.RegisterMachine;
+import dendron.machine.Superinstructions;
+import dendron.tree.ParseTree;
+import dendron.tree.Print;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Check that the optional passes of the dendron language system change
+ * nothing a program's user can see. Each program is run with and
+ * without a pass (simplifying the parse tree, eliminating its common
+ * subexpressions, or both), and the output and exit status of the two
+ * runs are compared; the JIT-compiled programs are compared with the
+ * interpreted ones, the register machine's with the stack Machine's,
+ * and the optimized Machine programs with the expected output of the
+ * assembly language tests.
+ * <p>
+ * Errors that would stop the Java virtual machine are caught instead,
+ * and recorded as the exit status the run would have had.
+ */
+public class DendronVerify {
+
+    /**
+     * Programs that end in an error, or that a simplifier could get
+     * wrong, besides the ones in the source directory
+     */
+    private static final List< String > EDGE_CASES = Arrays.asList(
+            "@ 1 @ / 7 0 @ 2",
+            ":= zero 0 @ 1 @ / 7 zero @ 2",
+            "@ * 0 / 7 0",
+            "@ 1 @ + y 1 @ 2",
+            "@ * 0 y",
+            ":= x 5 @ - x x @ * 0 undefined",
+            "@ # _ 4",
+            ":= n 9 @ # _ n",
+            "@ # _ 0 @ # _ 1 @ _ # _ 1000",
+            ":= a 3 @ _ _ a @ + 0 a @ * 1 a @ / a 1 @ - a 0"
+    );
+
+    /**
+     * Programs with repeated subexpressions, and how many evaluations
+     * eliminating them should save: repeats in one statement and across
+     * statements, a repeat after one of its operands is assigned, a
+     * variable assigned an expression using itself, and a repeat that
+     * can fail and so must stay where it is
+     */
+    private static final Map< String, Integer > REPEATS = new LinkedHashMap<>();
+    static {
+        REPEATS.put( ":= a 3 := b 4 @ + * a b * a b", 1 );
+        REPEATS.put( ":= a 3 := b 4 @ * a b := c + 1 * a b @ c", 1 );
+        REPEATS.put( ":= a 3 := b 4 @ * a b := a 5 @ * a b", 0 );
+        REPEATS.put( ":= a 1 := b 2 := a + a b := a + a b @ a", 0 );
+        REPEATS.put( ":= a 1 := b 2 := a * + a b + a b @ + a b", 1 );
+        REPEATS.put( ":= z 0 @ + y + / 1 z / 1 z", 0 );
+        REPEATS.put( "@ 1 := z 0 @ + 2 + / 7 z / 7 z", 0 );
+        REPEATS.put( ":= z 2 @ + / 7 z / 7 z", 0 );
+    }
+
+    private static int checks = 0;
+    private static int failures = 0;
+
+    /**
+     * Run all the checks and report the ones that fail.
+     *
+     * @param args the directories holding the source programs and the
+     *             assembly language tests, "source" and "assy" if not given
+     */
+    public static void main( String... args ) {
+        String sourceDir = args.length > 0 ? args[ 0 ] : "source";
+        String assyDir = args.length > 1 ? args[ 1 ] : "assy";
+
+        Map< String, String > programs = new LinkedHashMap<>();
+        for ( int i = 0; i < DendronTest.NUM_TESTS; i++ ) {
+            programs.put( "test " + i,
+                          String.join( " ", DendronTest.programs.get( i ) ) );
+        }
+        for ( File file: files( sourceDir, ".txt" ) ) {
+            programs.put( file.getName(), read( file ) );
+        }
+        for ( String program: EDGE_CASES ) {
+            programs.put( program, program );
+        }
+        for ( String program: REPEATS.keySet() ) {
+            programs.put( program, program );
+            check( "common subexpressions removed", program,
+                   String.valueOf( REPEATS.get( program ) ),
+                   String.valueOf( new ParseTree( program )
+                                   .eliminateCommonSubexpressions() ) );
+        }
+        for ( Map.Entry< String, String > program: programs.entrySet() ) {
+            checkTree( "simplify", program.getKey(), program.getValue(),
+                       ParseTree::simplify );
+            checkTree( "common subexpressions", program.getKey(),
+                       program.getValue(),
+                       ParseTree::eliminateCommonSubexpressions );
+            checkTree( "simplify and common subexpressions",
+                       program.getKey(), program.getValue(), tree -> {
+                           tree.simplify();
+                           tree.eliminateCommonSubexpressions();
+                       } );
+            String source = program.getValue();
+            check( "jit against interpret", program.getKey(),
+                   observed( outcome( () -> new ParseTree( source ).interpret() ),
+                             false ),
+                   observed( outcome( () -> JitCompiler.compile(
+                             new ParseTree( source ) ).execute() ), false ) );
+            check( "register machine against machine", program.getKey(),
+                   observed( outcome( () -> Machine.execute(
+                             new ParseTree( source ).compile() ) ), true ),
+                   observed( outcome( () -> RegisterMachine.execute(
+                             new ParseTree( source ).compileRegisters() ) ),
+                             true ) );
+        }
+
+        for ( File file: files( assyDir, ".denm" ) ) {
+            String name = file.getPath();
+            String golden = read( new File(
+                    name.substring( 0, name.length() - 5 ) + ".out" ) );
+            checkGolden( "peephole", file, golden,
+                         code -> Peephole.standard().optimize( code ) );
+            checkGolden( "superinstructions", file, golden,
+                         code -> new Superinstructions( EnumSet.allOf(
+                                 Superinstructions.Pattern.class ) )
+                                 .rewrite( code ) );
+            check( "jit", file.getName(), golden, outcome( () ->
+                    JitCompiler.compile( assemble( file ) ).execute() ) );
+            checkBatch( file, golden );
+        }
+
+        System.out.println( checks + " checks, " + failures + " failed" );
+        if ( failures > 0 ) {
+            System.exit( Errors.DENDRON_ABORT );
+        }
+    }
+
+    /**
+     * Check that a change to a parse tree makes no difference to what
+     * the program does, either interpreted or compiled and executed.
+     *
+     * @param pass the name of the change
+     * @param name the name of the program
+     * @param source the program
+     * @param change what to do to the tree after it is parsed
+     */
+    static void checkTree( String pass, String name, String source,
+                           Consumer< ParseTree > change ) {
+        check( pass + " interpret", name,
+               outcome( () -> new ParseTree( source ).interpret() ),
+               outcome( () -> {
+                   ParseTree tree = new ParseTree( source );
+                   change.accept( tree );
+                   tree.interpret();
+               } ) );
+        check( pass + " compile", name,
+               outcome( () -> Machine.execute(
+                       new ParseTree( source ).compile() ) ),
+               outcome( () -> {
+                   ParseTree tree = new ParseTree( source );
+                   change.accept( tree );
+                   Machine.execute( tree.compile() );
+               } ) );
+    }
+
+    /**
+     * Check that an optimized Machine program has the output expected
+     * of the original.
+     *
+     * @param pass the name of the optimization
+     * @param file the assembly language program
+     * @param golden its expected output
+     * @param optimize the optimization
+     */
+    private static void checkGolden( String pass, File file, String golden,
+            Function< List< Machine.Instruction >, Code > optimize ) {
+        check( pass, file.getName(), golden, outcome( () -> {
+            Code optimized = optimize.apply( assemble( file ) );
+            Machine.execute( optimized );
+        } ) );
+    }
+
+    /**
+     * Check that a BatchMachine running one row prints the values and
+     * leaves the variables expected of the program. A batch run prints
+     * nothing itself, so its results are laid out as the expected
+     * output lays them out, with the variables in order of their names.
+     *
+     * @param file the assembly language program
+     * @param golden its expected output
+     */
+    private static void checkBatch( File file, String golden ) {
+        StringBuilder expected = new StringBuilder();
+        Map< String, String > variables = new TreeMap<>();
+        for ( String line: golden.split( "\n" ) ) {
+            if ( line.startsWith( Machine.MARKER ) ) {
+                expected.append( line ).append( '\n' );
+            }
+            else if ( line.matches( " *\\S+ : +-?\\d+" ) ) {
+                String[] entry = line.trim().split( " +: +" );
+                variables.put( entry[ 0 ], entry[ 1 ] );
+            }
+        }
+        variables.forEach( ( name, value ) ->
+                expected.append( name ).append( " : " ).append( value )
+                        .append( '\n' ) );
+        check( "batch", file.getName(), expected.toString(), outcome( () -> {
+            // A column for a name no program can have gives the run
+            // its one row.
+            Map< String, int[] > oneRow = new LinkedHashMap<>();
+            oneRow.put( "$row", new int[ 1 ] );
+            BatchMachine.Result result =
+                    new BatchMachine( assemble( file ) ).run( oneRow );
+            for ( int[] printed: result.printed() ) {
+                System.out.println( Machine.MARKER + printed[ 0 ] );
+            }
+            new TreeMap<>( result.columns() ).forEach( ( name, column ) ->
+                    System.out.println( name + " : " + column[ 0 ] ) );
+        } ) );
+    }
+
+    /**
+     * Count a check, and report it if it failed.
+     *
+     * @param what the kind of check
+     * @param name the program checked
+     * @param expected what the program should have done
+     * @param actual what it did
+     */
+    private static void check( String what, String name,
+                               String expected, String actual ) {
+        checks++;
+        if ( !expected.equals( actual ) ) {
+            failures++;
+            System.out.println( "FAILED " + what + ": " + name );
+            System.out.println( "--- expected\n" + expected );
+            System.out.println( "--- actual\n" + actual );
+        }
+    }
+
+    /**
+     * Pick out of what a run printed what any way of running the program
+     * should agree on, leaving out the messages each way prints around
+     * it and the wording of errors.
+     *
+     * @param outcome what the run printed, as from outcome
+     * @param variables whether to keep the final values of the
+     *                  variables, which the tree interpreter does not show
+     * @return the values the program printed, one per line, then the
+     *         variables in order of their names, then the exit status
+     */
+    private static String observed( String outcome, boolean variables ) {
+        StringBuilder result = new StringBuilder();
+        Map< String, String > values = new TreeMap<>();
+        String status = "";
+        for ( String line: outcome.split( "\n" ) ) {
+            if ( line.startsWith( Print.MARKER ) ||
+                 line.startsWith( Machine.MARKER ) ) {
+                result.append( line.substring( Print.MARKER.length() ) ).append( '\n' );
+            }
+            else if ( line.matches( " *\\S+ : +-?\\d+" ) ) {
+                String[] entry = line.trim().split( " +: +" );
+                values.put( entry[ 0 ], entry[ 1 ] );
+            }
+            else if ( line.startsWith( "exit status" ) ) {
+                status = line + "\n";
+            }
+        }
+        if ( variables ) {
+            values.forEach( ( name, value ) ->
+                    result.append( name ).append( " : " ).append( value )
+                          .append( '\n' ) );
+        }
+        return result.append( status ).toString();
+    }
+
+    /**
+     * Run something with its standard output and standard error
+     * captured.
+     *
+     * @param run what to run
+     * @return everything it printed, followed by the exit status the
+     *         Java virtual machine would have had if it had been the
+     *         whole program, unless that is 0
+     */
+    private static String outcome( Runnable run ) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PrintStream out = System.out;
+        PrintStream err = System.err;
+        PrintStream captured = new PrintStream( bytes, true );
+        System.setOut( captured );
+        System.setErr( captured );
+        Errors.throwOnReport( true );
+        try {
+            run.run();
+        }
+        catch ( Errors.Abort abort ) {
+            captured.print( abort.getMessage() );
+            captured.print( "\nexit status " + Errors.DENDRON_ABORT + "\n" );
+        }
+        catch ( RuntimeException e ) {
+            // Uncaught, it would end the program with a stack trace.
+            captured.print( e + "\nexit status 1\n" );
+        }
+        finally {
+            Errors.throwOnReport( false );
+            System.setOut( out );
+            System.setErr( err );
+        }
+        return bytes.toString();
+    }
+
+    /**
+     * @param file an assembly language program
+     * @return the program, ready to execute
+     */
+    private static Code assemble( File file ) {
+        try {
+            return InstructionReader.assemble(
+                    Files.newBufferedReader( file.toPath() ) );
+        }
+        catch ( IOException ioe ) {
+            throw new IllegalStateException( ioe );
+        }
+    }
+
+    /**
+     * @param dir a directory
+     * @param suffix the end of the names of the files wanted
+     * @return the files in the directory whose names end that way, in
+     *         order of their names
+     */
+    private static List< File > files( String dir, String suffix ) {
+        File[] files = new File( dir ).listFiles(
+                ( d, name ) -> name.endsWith( suffix ) );
+        if ( files == null ) {
+            System.err.println( "Provided directory " + dir +
+                                " does not exist." );
+            System.exit( 1 );
+        }
+        List< File > result = new ArrayList<>( Arrays.asList( files ) );
+        result.sort( null );
+        return result;
+    }
+
+    /**
+     * @param file a text file
+     * @return its contents
+     */
+    private static String read( File file ) {
+        try {
+            return new String( Files.readAllBytes( file.toPath() ),
+                               StandardCharsets.UTF_8 );
+        }
+        catch ( IOException ioe ) {
+            throw new IllegalStateException( ioe );
+        }
+    }
+}
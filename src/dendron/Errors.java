@@ -1,6 +1,8 @@
 package dendron;
 
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * Share code for dealing with Dendron program errors:
@@ -22,6 +24,12 @@ public class Errors {
      */
     public static final int DENDRON_ABORT = 1;
 
+    private static final List< Runnable > hooks = new CopyOnWriteArrayList<>();
+
+    // The threads on which a report throws an Abort instead of exiting
+    private static final ThreadLocal< Boolean > throwing =
+            ThreadLocal.withInitial( () -> false );
+
     public enum Type {
         DIVIDE_BY_ZERO( "divide by zero" ),
         ILLEGAL_VALUE( "illegal value encountered in source" ),
@@ -35,13 +43,87 @@ public class Errors {
         }
     }
 
+    /**
+     * What a report throws, on a thread that has asked for it, instead
+     * of stopping the Java virtual machine.
+     *
+     * @see #throwOnReport(boolean)
+     */
+    public static class Abort extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        private final Type type;
+
+        /**
+         * @param type the kind of error
+         * @param info if not null, an additional value, as in report
+         */
+        public Abort( Type type, Object info ) {
+            // The program's error is the point, not where in Java it was
+            // found, so no stack trace is filled in
+            super( info == null ? type.message : type.message + ": " + info,
+                   null, false, false );
+            this.type = type;
+        }
+
+        /**
+         * @return the kind of error
+         */
+        public Type type() {
+            return type;
+        }
+    }
+
+    /**
+     * Choose whether a report made on the current thread stops the Java
+     * virtual machine, as it does by default, or only the program: it
+     * throws an {@link Abort} instead, after flushing and running the
+     * hooks as usual. Threads that run programs on behalf of others,
+     * such as those of a {@link dendron.machine.MachinePool}, do this
+     * so that one bad program does not take the others down with it.
+     *
+     * @param on true to throw, false to exit
+     */
+    public static void throwOnReport( boolean on ) {
+        throwing.set( on );
+    }
+
+    /**
+     * Have something done whenever an error is reported, before the
+     * program is stopped, such as flushing output that is being held
+     * back. The default output sink is always flushed.
+     *
+     * @param hook what to do
+     */
+    public static void addReportHook( Runnable hook ) {
+        hooks.add( hook );
+    }
+
+    /**
+     * Stop doing something whenever an error is reported.
+     *
+     * @param hook what was being done
+     */
+    public static void removeReportHook( Runnable hook ) {
+        hooks.remove( hook );
+    }
+
     /**
      * Report an error and stop the program. All output goes to standard error.
+     * On a thread that has called {@link #throwOnReport(boolean)}, nothing
+     * is printed and an {@link Abort} is thrown instead.
      *
      * @param type The kind of error, printed first
      * @param info if not null, an additional value to be printed after a colon
      */
     public static void report( Type type, Object info ) {
+        Output.sink().flush();
+        for ( Runnable hook: hooks ) {
+            hook.run();
+        }
+        if ( throwing.get() ) {
+            throw new Abort( type, info );
+        }
         System.err.print( type.message );
         if ( info != null ) {
             System.err.print( ": " + info );
@@ -51,11 +133,14 @@ public class Errors {
 
     /**
      * Show on standard output the values of all the variables in the table.
+     * Temporaries the compiler made up, whose names start with '$',
+     * are left out.
      * @param table the program's symbol table
      */
     public static void dump( Map< String, Integer > table ) {
         System.out.println( "Symbol Table Contents\n=====================\n" );
         for ( String ident: table.keySet() ) {
+            if ( ident.startsWith( "$" ) ) continue;
             System.out.printf( "%12s : %11d\n", ident, table.get( ident ) );
         }
     }
@@ -0,0 +1,316 @@
+package dendron;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.IntStream;
+
+/**
+ * Share code for dealing with the output of Dendron programs: the
+ * {@link OutputSink} that the engines print to unless they are given
+ * one of their own, and the kinds of sink there are:
+ * <ul>
+ *     <li>standard output, one println per value (the default)</li>
+ *     <li>a buffered writer to any stream</li>
+ *     <li>a collector that keeps the values for the caller</li>
+ *     <li>a discarder, for measuring everything but the printing</li>
+ * </ul>
+ */
+public class Output {
+
+    private static volatile OutputSink sink = new Standard();
+
+    /**
+     * Do not instantiate this class.
+     */
+    private Output() {
+    }
+
+    /**
+     * @return the sink the engines print to by default
+     */
+    public static OutputSink sink() {
+        return sink;
+    }
+
+    /**
+     * Change the sink the engines print to by default. The old sink is
+     * flushed first.
+     *
+     * @param newSink the new sink
+     */
+    public static void setSink( OutputSink newSink ) {
+        sink.flush();
+        sink = newSink;
+    }
+
+    /**
+     * Print each value with System.out.println, as soon as it is
+     * printed. Standard output is looked up each time, so System.setOut
+     * works, and is flushed only when this sink is. Safe for use by several threads at once,
+     * such as the workers of a {@link dendron.machine.MachinePool}.
+     */
+    public static class Standard implements OutputSink {
+        private static final Charset CHARSET = Charset.defaultCharset();
+        private static final int NEWLINE =
+                System.lineSeparator().getBytes( CHARSET ).length;
+
+        private final LongAdder bytes = new LongAdder();
+        private final LongAdder flushes = new LongAdder();
+        // The last marker printed, and its length when encoded
+        private volatile Marker marker = new Marker( "", 0 );
+
+        private static final class Marker {
+            private final String text;
+            private final int bytes;
+
+            Marker( String text, int bytes ) {
+                this.text = text;
+                this.bytes = bytes;
+            }
+        }
+
+        @Override
+        public void print( String marker, int value ) {
+            String digits = Integer.toString( value );
+            PrintStream out = System.out;
+            out.println( marker + digits );
+            bytes.add( markerBytes( marker ) + digits.length() + NEWLINE );
+        }
+
+        /**
+         * @param text a marker
+         * @return how many bytes it takes in the default charset
+         */
+        private int markerBytes( String text ) {
+            Marker last = marker;
+            if ( !last.text.equals( text ) ) {
+                last = new Marker( text, text.getBytes( CHARSET ).length );
+                marker = last;
+            }
+            return last.bytes;
+        }
+
+        @Override
+        public void flush() {
+            System.out.flush();
+            flushes.increment();
+        }
+
+        /**
+         * @return the number of bytes printed, in the default charset
+         */
+        @Override
+        public long bytesWritten() {
+            return bytes.sum();
+        }
+
+        @Override
+        public long flushes() {
+            return flushes.sum();
+        }
+    }
+
+    /**
+     * Format values into a byte buffer, without making strings, and
+     * write the buffer to a stream when it is full or flushed.
+     * Not safe for use by several threads at once.
+     */
+    public static class Buffered implements OutputSink, AutoCloseable {
+        private static final byte[] NEWLINE =
+                System.lineSeparator().getBytes( StandardCharsets.US_ASCII );
+
+        private final OutputStream out;
+        private final byte[] buffer;
+        private int length = 0;
+        private String lastMarker = null;
+        private byte[] markerBytes = null;
+        private long bytes = 0;
+        private long flushes = 0;
+
+        /**
+         * @param out      where the text goes
+         * @param capacity how many bytes to hold before writing them
+         */
+        public Buffered( OutputStream out, int capacity ) {
+            this.out = out;
+            // Room for at least one line: marker, sign, ten digits, newline
+            this.buffer = new byte[ Math.max( capacity, 64 ) ];
+        }
+
+        /**
+         * @param out where the text goes, 8K at a time
+         */
+        public Buffered( OutputStream out ) {
+            this( out, 8192 );
+        }
+
+        @Override
+        public void print( String marker, int value ) {
+            if ( !marker.equals( lastMarker ) ) {
+                lastMarker = marker;
+                markerBytes = marker.getBytes( StandardCharsets.UTF_8 );
+            }
+            int line = 11 + NEWLINE.length;
+            if ( length + markerBytes.length + line > buffer.length ) {
+                drain();
+            }
+            if ( markerBytes.length + line > buffer.length ) {
+                write( markerBytes, 0, markerBytes.length );
+            }
+            else {
+                System.arraycopy( markerBytes, 0, buffer, length, markerBytes.length );
+                length += markerBytes.length;
+            }
+            length = digits( value, buffer, length );
+            System.arraycopy( NEWLINE, 0, buffer, length, NEWLINE.length );
+            length += NEWLINE.length;
+        }
+
+        /**
+         * Put the decimal digits of a value into a buffer.
+         *
+         * @param value    the value
+         * @param buffer   where to put them
+         * @param position where in the buffer to start
+         * @return the position after the last digit
+         */
+        private static int digits( int value, byte[] buffer, int position ) {
+            long v = value;
+            if ( v < 0 ) {
+                buffer[ position++ ] = '-';
+                v = -v;
+            }
+            int end = position;
+            long rest = v;
+            do {
+                end++;
+                rest /= 10;
+            } while ( rest != 0 );
+            for ( int i = end - 1; i >= position; i-- ) {
+                buffer[ i ] = (byte) ( '0' + v % 10 );
+                v /= 10;
+            }
+            return end;
+        }
+
+        @Override
+        public void flush() {
+            drain();
+            try {
+                out.flush();
+            }
+            catch ( IOException ioe ) {
+                throw new UncheckedIOException( ioe );
+            }
+            flushes++;
+        }
+
+        /**
+         * Write what is in the buffer to the stream, without flushing it.
+         */
+        private void drain() {
+            if ( length > 0 ) {
+                write( buffer, 0, length );
+                length = 0;
+            }
+        }
+
+        private void write( byte[] bytes, int offset, int count ) {
+            try {
+                out.write( bytes, offset, count );
+            }
+            catch ( IOException ioe ) {
+                throw new UncheckedIOException( ioe );
+            }
+            this.bytes += count;
+        }
+
+        /**
+         * Flush what is left. The stream is not closed.
+         */
+        @Override
+        public void close() {
+            flush();
+        }
+
+        @Override
+        public long bytesWritten() {
+            return bytes;
+        }
+
+        @Override
+        public long flushes() {
+            return flushes;
+        }
+    }
+
+    /**
+     * Keep the printed values, in order, for the caller to look at.
+     * Not safe for use by several threads at once.
+     */
+    public static class Collector implements OutputSink {
+        private int[] values = new int[ 16 ];
+        private int count = 0;
+
+        @Override
+        public void print( String marker, int value ) {
+            if ( count == values.length ) {
+                values = Arrays.copyOf( values, 2 * values.length );
+            }
+            values[ count++ ] = value;
+        }
+
+        /**
+         * @return the values printed so far
+         */
+        public int[] values() {
+            return Arrays.copyOf( values, count );
+        }
+
+        /**
+         * @return the values printed so far, as a stream
+         */
+        public IntStream stream() {
+            return Arrays.stream( values, 0, count );
+        }
+
+        /**
+         * @return how many values have been printed
+         */
+        public int size() {
+            return count;
+        }
+
+        /**
+         * Forget the values printed so far.
+         */
+        public void clear() {
+            count = 0;
+        }
+    }
+
+    /**
+     * Throw the printed values away, only counting them.
+     */
+    public static class Discard implements OutputSink {
+        private long count = 0;
+
+        @Override
+        public void print( String marker, int value ) {
+            count++;
+        }
+
+        /**
+         * @return how many values have been printed
+         */
+        public long count() {
+            return count;
+        }
+    }
+}
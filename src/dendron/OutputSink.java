@@ -0,0 +1,42 @@
+package dendron;
+
+/**
+ * Where the values printed by a Dendron program go. Each engine
+ * prints with its own marker in front of the value ("*** " for the
+ * machines, "=== " for the tree interpreter), which a sink may use
+ * or ignore.
+ *
+ * @see Output
+ */
+public interface OutputSink {
+
+    /**
+     * Print one value.
+     *
+     * @param marker what the engine puts in front of a printed value
+     * @param value  the value
+     */
+    void print( String marker, int value );
+
+    /**
+     * Send anything held back to its destination.
+     */
+    default void flush() {
+    }
+
+    /**
+     * @return how many bytes of text the sink has written
+     */
+    default long bytesWritten() {
+        return 0;
+    }
+
+    /**
+     * @return how many times the sink has flushed its destination, which
+     * it does once for each call of {@link #flush()} and at no other
+     * time; 0 for a sink with no destination
+     */
+    default long flushes() {
+        return 0;
+    }
+}
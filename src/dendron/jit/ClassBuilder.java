@@ -0,0 +1,222 @@
+package dendron.jit;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Just enough of the JVM class file format to write a class with no
+ * fields and straight-line methods: a constant pool, and methods with
+ * a Code attribute but no stack map frames or exception handlers.
+ */
+class ClassBuilder {
+
+    static final int ACC_PUBLIC = 0x0001;
+    static final int ACC_PRIVATE = 0x0002;
+    static final int ACC_STATIC = 0x0008;
+    static final int ACC_FINAL = 0x0010;
+    static final int ACC_SUPER = 0x0020;
+
+    /**
+     * Java 8 class files; nothing newer is needed
+     */
+    private static final int MAJOR_VERSION = 52;
+
+    private static final int UTF8 = 1;
+    private static final int INTEGER = 3;
+    private static final int CLASS = 7;
+    private static final int STRING = 8;
+    private static final int METHODREF = 10;
+    private static final int NAME_AND_TYPE = 12;
+
+    private final ByteArrayOutputStream poolBytes = new ByteArrayOutputStream();
+    private final DataOutputStream pool = new DataOutputStream(poolBytes);
+    private final Map<String, Integer> entries = new HashMap<>();
+    private int poolCount = 1;
+
+    private final String name;
+    private final String superName;
+    private final String[] interfaces;
+    private final List<byte[]> methods = new ArrayList<>();
+
+    /**
+     * @param name       the internal name (slashes, not dots) of the class
+     * @param superName  the internal name of its superclass
+     * @param interfaces the internal names of the interfaces it implements
+     */
+    ClassBuilder(String name, String superName, String... interfaces) {
+        this.name = name;
+        this.superName = superName;
+        this.interfaces = interfaces;
+    }
+
+    /**
+     * @return the number of constant pool entries so far
+     */
+    int poolSize() {
+        return poolCount;
+    }
+
+    int utf8(String text) {
+        return entry("U" + text, () -> {
+            pool.writeByte(UTF8);
+            pool.writeUTF(text);
+        });
+    }
+
+    int integer(int value) {
+        return entry("I" + value, () -> {
+            pool.writeByte(INTEGER);
+            pool.writeInt(value);
+        });
+    }
+
+    int classRef(String internalName) {
+        int utf = utf8(internalName);
+        return entry("C" + internalName, () -> {
+            pool.writeByte(CLASS);
+            pool.writeShort(utf);
+        });
+    }
+
+    int string(String text) {
+        int utf = utf8(text);
+        return entry("S" + text, () -> {
+            pool.writeByte(STRING);
+            pool.writeShort(utf);
+        });
+    }
+
+    int methodRef(String owner, String method, String descriptor) {
+        int cls = classRef(owner);
+        int nameUtf = utf8(method);
+        int descUtf = utf8(descriptor);
+        int nat = entry("N" + method + ":" + descriptor, () -> {
+            pool.writeByte(NAME_AND_TYPE);
+            pool.writeShort(nameUtf);
+            pool.writeShort(descUtf);
+        });
+        return entry("M" + owner + "." + method + ":" + descriptor, () -> {
+            pool.writeByte(METHODREF);
+            pool.writeShort(cls);
+            pool.writeShort(nat);
+        });
+    }
+
+    /**
+     * Add a method.
+     *
+     * @param access     the ACC_ flags
+     * @param method     the method's name
+     * @param descriptor the method's type descriptor
+     * @param maxStack   the deepest the operand stack gets
+     * @param maxLocals  how many local variable slots it uses
+     * @param code       the method's bytecode
+     */
+    void method(int access, String method, String descriptor,
+                int maxStack, int maxLocals, byte[] code) {
+        if (code.length > 65535) {
+            throw new IllegalArgumentException("Method " + method + " too large");
+        }
+        int nameUtf = utf8(method);
+        int descUtf = utf8(descriptor);
+        int codeUtf = utf8("Code");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(code.length + 32);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeShort(access);
+            out.writeShort(nameUtf);
+            out.writeShort(descUtf);
+            out.writeShort(1);
+            out.writeShort(codeUtf);
+            out.writeInt(12 + code.length);
+            out.writeShort(maxStack);
+            out.writeShort(maxLocals);
+            out.writeInt(code.length);
+            out.write(code);
+            out.writeShort(0);
+            out.writeShort(0);
+        }
+        catch (IOException ioe) {
+            throw new UncheckedIOException(ioe);
+        }
+        methods.add(bytes.toByteArray());
+    }
+
+    /**
+     * @return the class file
+     * @throws IllegalArgumentException if the constant pool is too large
+     */
+    byte[] toByteArray() {
+        int thisClass = classRef(name);
+        int superClass = classRef(superName);
+        int[] interfaceRefs = new int[interfaces.length];
+        for (int i = 0; i < interfaces.length; i++) {
+            interfaceRefs[i] = classRef(interfaces[i]);
+        }
+        if (poolCount > 65535) {
+            throw new IllegalArgumentException("Too many constants for one class");
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(MAJOR_VERSION);
+            out.writeShort(poolCount);
+            poolBytes.writeTo(out);
+            out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(interfaceRefs.length);
+            for (int ref : interfaceRefs) {
+                out.writeShort(ref);
+            }
+            out.writeShort(0);
+            out.writeShort(methods.size());
+            for (byte[] method : methods) {
+                out.write(method);
+            }
+            out.writeShort(0);
+        }
+        catch (IOException ioe) {
+            throw new UncheckedIOException(ioe);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Something that writes a constant pool entry.
+     */
+    private interface EntryWriter {
+        void write() throws IOException;
+    }
+
+    /**
+     * Find a constant pool entry, adding it if it is not there yet.
+     *
+     * @param key    what identifies the entry
+     * @param writer writes the entry if it is new
+     * @return the entry's index
+     */
+    private int entry(String key, EntryWriter writer) {
+        Integer index = entries.get(key);
+        if (index == null) {
+            try {
+                writer.write();
+            }
+            catch (IOException ioe) {
+                throw new UncheckedIOException(ioe);
+            }
+            index = poolCount;
+            poolCount++;
+            entries.put(key, index);
+        }
+        return index;
+    }
+}
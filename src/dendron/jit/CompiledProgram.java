@@ -0,0 +1,89 @@
+package dendron.jit;
+
+import dendron.Errors;
+import dendron.Output;
+import dendron.machine.SymbolTable;
+
+import java.util.Map;
+
+/**
+ * A Dendron program compiled by the {@link JitCompiler}, together with
+ * what is needed to run it the way the Machine would.
+ */
+public class CompiledProgram {
+
+    private final JitProgram program;
+    private final SymbolTable symbols;
+    private final boolean[] assigned;
+    private final int leftOnStack;
+
+    /**
+     * @param program     the generated code
+     * @param symbols     the program's variables
+     * @param assigned    which variables the program gives a value, by slot
+     * @param leftOnStack how many values the program leaves on the stack
+     */
+    CompiledProgram(JitProgram program, SymbolTable symbols,
+                    boolean[] assigned, int leftOnStack) {
+        this.program = program;
+        this.symbols = symbols;
+        this.assigned = assigned;
+        this.leftOnStack = leftOnStack;
+    }
+
+    /**
+     * Run the program. It is safe to run the same program on several
+     * threads at once, each with its own variables.
+     *
+     * @param variables an array made by {@link #newVariables()};
+     *                  the variables' final values are left in it
+     */
+    public void run(int[] variables) {
+        program.run(variables);
+    }
+
+    /**
+     * @return an array to hold the program's variables while it runs
+     */
+    public int[] newVariables() {
+        return new int[symbols.size()];
+    }
+
+    /**
+     * @param variables an array the program has been run with
+     * @return the variables the program gives a value, and their values
+     */
+    public Map<String, Integer> symbolTable(int[] variables) {
+        return symbols.toMap(variables, assigned);
+    }
+
+    /**
+     * @return the program's variables
+     */
+    public SymbolTable symbols() {
+        return symbols;
+    }
+
+    /**
+     * @return how many values a Machine would have left on its stack
+     * after running the program
+     */
+    public int stackSize() {
+        return leftOnStack;
+    }
+
+    /**
+     * Run the program once, with the same report as
+     * {@link dendron.machine.Machine#execute(java.util.List)}.
+     */
+    public void execute() {
+        int[] variables = newVariables();
+        System.out.println("Executing compiled code...");
+        run(variables);
+        Output.sink().flush();
+        System.out.println("Machine: execution ended with " +
+                leftOnStack + " items left on the stack.");
+        System.out.println();
+        Errors.dump(symbolTable(variables));
+    }
+}
@@ -0,0 +1,534 @@
+package dendron.jit;
+
+import dendron.machine.Bytecode;
+import dendron.machine.InstructionReader;
+import dendron.machine.Machine;
+import dendron.machine.ObjectFile;
+import dendron.machine.SymbolTable;
+import dendron.tree.ParseTree;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.file.Paths;
+import java.util.List;
+
+/**
+ * Compiles Dendron programs to JVM bytecode. Each program becomes a
+ * hidden class implementing {@link JitProgram}, so once it has run a
+ * few times HotSpot compiles it to machine code like any other Java.
+ * <p>
+ * Dendron programs have no branches, so everything about the stack
+ * machine is known before the program runs: how deep the stack is at
+ * each instruction, and which variables have been given a value. The
+ * generated code therefore keeps the Machine's stack on the JVM's
+ * operand stack and each variable in a local, with nothing checked at
+ * run time. A LOAD of a variable that cannot have a value yet becomes
+ * a call that reports the error.
+ * <p>
+ * The code is split into methods of a few thousand bytes, at points
+ * where nothing on the stack is ever used again, because HotSpot does
+ * not compile methods larger than 8000 bytes. Each method reads the
+ * variables it needs from the array passed to {@link JitProgram#run}
+ * and writes back the ones it assigns. A statement too long to fit in
+ * one JVM method, which has no such point inside it, cannot be
+ * compiled; the program then runs on a Machine instead (see
+ * {@link MachineFallback}).
+ */
+public class JitCompiler {
+
+    private static final String CLASS_NAME = "dendron/jit/CompiledDendron";
+    private static final String RUNTIME = "dendron/jit/JitRuntime";
+    private static final String CHUNK_DESCRIPTOR = "([I)V";
+
+    /**
+     * How large a method's body may grow before the code is split,
+     * leaving room under HotSpot's limit for the loads and stores
+     * around it
+     */
+    private static final int CHUNK_BYTES = 4000;
+
+    /**
+     * Once the constant pool is this large, int constants are no
+     * longer added to it, so that there is room left for the names
+     * of the methods and variables
+     */
+    private static final int POOL_RESERVE = 60000;
+
+    /**
+     * The most bytes of code, and the deepest operand stack, a JVM
+     * method may have
+     */
+    private static final int METHOD_LIMIT = 65535;
+
+    /**
+     * Thrown when the code reaches a method's limits before it comes
+     * to a point where it can be split
+     */
+    private static final class Unsplittable extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        Unsplittable() {
+            super(null, null, false, false);
+        }
+    }
+
+    // JVM opcodes
+    private static final int ICONST_0 = 0x03;
+    private static final int BIPUSH = 0x10;
+    private static final int SIPUSH = 0x11;
+    private static final int LDC = 0x12;
+    private static final int LDC_W = 0x13;
+    private static final int ILOAD = 0x15;
+    private static final int ILOAD_0 = 0x1a;
+    private static final int ALOAD_0 = 0x2a;
+    private static final int ALOAD_1 = 0x2b;
+    private static final int IALOAD = 0x2e;
+    private static final int ISTORE = 0x36;
+    private static final int ISTORE_0 = 0x3b;
+    private static final int IASTORE = 0x4f;
+    private static final int DUP = 0x59;
+    private static final int IADD = 0x60;
+    private static final int ISUB = 0x64;
+    private static final int IMUL = 0x68;
+    private static final int IDIV = 0x6c;
+    private static final int INEG = 0x74;
+    private static final int ISHL = 0x78;
+    private static final int I2D = 0x87;
+    private static final int D2I = 0x8e;
+    private static final int RETURN = 0xb1;
+    private static final int INVOKESPECIAL = 0xb7;
+    private static final int INVOKESTATIC = 0xb8;
+    private static final int WIDE = 0xc4;
+
+    private final ClassBuilder builder =
+            new ClassBuilder(CLASS_NAME, "java/lang/Object", "dendron/jit/JitProgram");
+    private final int[] code;
+    private final SymbolTable symbols;
+
+    // What is known about each instruction, indexed by its position in
+    // the program: its opcode, its operand, the stack depth before it,
+    // and the lowest the stack gets from there to the end.
+    private int[] ops;
+    private int[] operands;
+    private int[] depth;
+    private int[] floor;
+    private int count;
+
+    private final boolean[] assigned;
+    private int chunks = 0;
+
+    // The method being generated
+    private ByteArrayOutputStream body;
+    private int[] locals;
+    private int[] used;
+    private boolean[] preload;
+    private boolean[] written;
+    private int usedCount;
+
+    private JitCompiler(Bytecode program) {
+        this.code = program.code();
+        this.symbols = program.symbols();
+        this.assigned = new boolean[symbols.size()];
+        this.locals = new int[symbols.size()];
+        this.used = new int[symbols.size()];
+        this.preload = new boolean[symbols.size()];
+        this.written = new boolean[symbols.size()];
+    }
+
+    /**
+     * Compile a program.
+     *
+     * @param program a list of Machine instructions; it is linked
+     *                first if it is not already linked
+     * @return the compiled program, loaded and ready to run
+     * @throws IllegalArgumentException if the program would pop an
+     *                                  empty stack, or is too large
+     *                                  for one class
+     */
+    public static CompiledProgram compile(List<Machine.Instruction> program) {
+        return compile(Bytecode.from(program));
+    }
+
+    /**
+     * Compile the program represented by a parse tree.
+     *
+     * @param tree the parsed program
+     * @return the compiled program, loaded and ready to run
+     */
+    public static CompiledProgram compile(ParseTree tree) {
+        return compile(tree.compile());
+    }
+
+    /**
+     * Compile an encoded program. If some statement is too long for
+     * one JVM method, the program is run on a Machine instead.
+     *
+     * @param program the encoded program
+     * @return the compiled program, loaded and ready to run
+     * @throws IllegalArgumentException if the program would pop an
+     *                                  empty stack, or is too large
+     *                                  for one class
+     */
+    public static CompiledProgram compile(Bytecode program) {
+        JitCompiler compiler = new JitCompiler(program);
+        byte[] classFile;
+        try {
+            classFile = compiler.generate();
+        }
+        catch (Unsplittable e) {
+            return new CompiledProgram(new MachineFallback(program), program.symbols(),
+                    compiler.stored(), compiler.depth[compiler.count]);
+        }
+        JitProgram instance;
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup()
+                    .defineHiddenClass(classFile, true);
+            instance = (JitProgram) lookup
+                    .findConstructor(lookup.lookupClass(), MethodType.methodType(void.class))
+                    .invoke();
+        }
+        catch (RuntimeException | Error e) {
+            throw e;
+        }
+        catch (Throwable t) {
+            throw new IllegalStateException("Could not load compiled program", t);
+        }
+        return new CompiledProgram(instance, program.symbols(),
+                compiler.assigned, compiler.depth[compiler.count]);
+    }
+
+    /**
+     * @return the class file for the program
+     */
+    private byte[] generate() {
+        analyze();
+        int start = 0;
+        while (start < count) {
+            start = chunk(start);
+        }
+        ByteArrayOutputStream run = new ByteArrayOutputStream();
+        for (int c = 0; c < chunks; c++) {
+            run.write(ALOAD_1);
+            invoke(run, INVOKESTATIC, CLASS_NAME, "c" + c, CHUNK_DESCRIPTOR);
+        }
+        run.write(RETURN);
+        builder.method(ClassBuilder.ACC_PUBLIC, "run", CHUNK_DESCRIPTOR, 1, 2, run.toByteArray());
+
+        ByteArrayOutputStream init = new ByteArrayOutputStream();
+        init.write(ALOAD_0);
+        invoke(init, INVOKESPECIAL, "java/lang/Object", "<init>", "()V");
+        init.write(RETURN);
+        builder.method(ClassBuilder.ACC_PUBLIC, "<init>", "()V", 1, 1, init.toByteArray());
+        return builder.toByteArray();
+    }
+
+    /**
+     * Decode the program and work out the stack depths.
+     */
+    private void analyze() {
+        int n = code.length;
+        ops = new int[n];
+        operands = new int[n];
+        depth = new int[n + 1];
+        floor = new int[n + 1];
+        int pc = 0;
+        while (pc < code.length) {
+            int op = code[pc++];
+            ops[count] = op;
+            if (op == Bytecode.PUSH || op == Bytecode.LOAD || op == Bytecode.STORE) {
+                operands[count] = code[pc++];
+            }
+            if (depth[count] < pops(op)) {
+                throw new IllegalArgumentException("Stack underflow at instruction " + count);
+            }
+            depth[count + 1] = depth[count] + effect(op);
+            count++;
+        }
+        floor[count] = depth[count];
+        for (int i = count - 1; i >= 0; i--) {
+            floor[i] = Math.min(depth[i], floor[i + 1]);
+        }
+    }
+
+    /**
+     * Generate one method, starting at an instruction where nothing
+     * below the top of the stack is used again.
+     *
+     * @param start the first instruction to generate
+     * @return where the next method starts
+     */
+    private int chunk(int start) {
+        body = new ByteArrayOutputStream();
+        usedCount = 0;
+        int base = depth[start];
+        int maxDepth = 0;
+        int i = start;
+        do {
+            instruction(ops[i], operands[i]);
+            maxDepth = Math.max(maxDepth, depth[i + 1] - base);
+            i++;
+            if (body.size() > METHOD_LIMIT || maxDepth >= METHOD_LIMIT) {
+                throw new Unsplittable();
+            }
+        } while (i < count && (body.size() < CHUNK_BYTES || depth[i] != floor[i]));
+
+        ByteArrayOutputStream method = new ByteArrayOutputStream(body.size() + 16 * usedCount);
+        for (int u = 0; u < usedCount; u++) {
+            int slot = used[u];
+            if (preload[slot]) {
+                method.write(ALOAD_0);
+                pushInt(method, slot);
+                method.write(IALOAD);
+                local(method, ISTORE_0, ISTORE, locals[slot]);
+            }
+        }
+        method.write(body.toByteArray(), 0, body.size());
+        for (int u = 0; u < usedCount; u++) {
+            int slot = used[u];
+            if (written[slot]) {
+                method.write(ALOAD_0);
+                pushInt(method, slot);
+                local(method, ILOAD_0, ILOAD, locals[slot]);
+                method.write(IASTORE);
+            }
+            preload[slot] = false;
+            written[slot] = false;
+            locals[slot] = 0;
+        }
+        method.write(RETURN);
+        // One more for the double made by SQRT; three for the stores
+        // at the end, above whatever is left on the stack.
+        int maxStack = Math.max(maxDepth + 1, depth[i] - base + 3);
+        if (method.size() > METHOD_LIMIT || maxStack > METHOD_LIMIT) {
+            throw new Unsplittable();
+        }
+        builder.method(ClassBuilder.ACC_PRIVATE | ClassBuilder.ACC_STATIC,
+                "c" + chunks++, CHUNK_DESCRIPTOR, maxStack, usedCount + 1, method.toByteArray());
+        return i;
+    }
+
+    /**
+     * @return which variables the program gives a value, by slot
+     */
+    private boolean[] stored() {
+        boolean[] stored = new boolean[symbols.size()];
+        for (int i = 0; i < count; i++) {
+            if (ops[i] == Bytecode.STORE) {
+                stored[operands[i]] = true;
+            }
+        }
+        return stored;
+    }
+
+    /**
+     * Generate the code for one Machine instruction.
+     */
+    private void instruction(int op, int operand) {
+        switch (op) {
+            case Bytecode.PUSH:
+                pushInt(body, operand);
+                break;
+            case Bytecode.LOAD:
+                if (!assigned[operand]) {
+                    constant(body, builder.string(symbols.name(operand)));
+                    invoke(body, INVOKESTATIC, RUNTIME, "uninitialized", "(Ljava/lang/String;)I");
+                }
+                else {
+                    local(body, ILOAD_0, ILOAD, variable(operand, true));
+                }
+                break;
+            case Bytecode.STORE:
+                local(body, ISTORE_0, ISTORE, variable(operand, false));
+                written[operand] = true;
+                assigned[operand] = true;
+                break;
+            case Bytecode.ADD:
+                body.write(IADD);
+                break;
+            case Bytecode.SUB:
+                body.write(ISUB);
+                break;
+            case Bytecode.MUL:
+                body.write(IMUL);
+                break;
+            case Bytecode.DIV:
+                body.write(IDIV);
+                break;
+            case Bytecode.NEG:
+                body.write(INEG);
+                break;
+            case Bytecode.SQRT:
+                body.write(I2D);
+                invoke(body, INVOKESTATIC, "java/lang/Math", "sqrt", "(D)D");
+                body.write(D2I);
+                break;
+            case Bytecode.PRINT:
+                invoke(body, INVOKESTATIC, RUNTIME, "print", "(I)V");
+                break;
+            case Bytecode.DUP:
+                body.write(DUP);
+                break;
+            default:
+                throw new IllegalArgumentException("Illegal opcode " + op);
+        }
+    }
+
+    /**
+     * @param slot    a variable
+     * @param reading true if the variable's value is about to be used
+     * @return the local holding the variable in the current method
+     */
+    private int variable(int slot, boolean reading) {
+        if (locals[slot] == 0) {
+            used[usedCount++] = slot;
+            locals[slot] = usedCount;
+            preload[slot] = reading;
+        }
+        return locals[slot];
+    }
+
+    /**
+     * Write a load or store of a local, in the shortest form there is.
+     */
+    private static void local(ByteArrayOutputStream out, int shortForm, int op, int index) {
+        if (index < 4) {
+            out.write(shortForm + index);
+        }
+        else if (index < 256) {
+            out.write(op);
+            out.write(index);
+        }
+        else {
+            out.write(WIDE);
+            out.write(op);
+            u2(out, index);
+        }
+    }
+
+    /**
+     * Write the push of an int constant, in the shortest form there is.
+     */
+    private void pushInt(ByteArrayOutputStream out, int value) {
+        if (value >= -1 && value <= 5) {
+            out.write(ICONST_0 + value);
+        }
+        else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+            out.write(BIPUSH);
+            out.write(value);
+        }
+        else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+            out.write(SIPUSH);
+            u2(out, value);
+        }
+        else if (builder.poolSize() < POOL_RESERVE) {
+            constant(out, builder.integer(value));
+        }
+        else {
+            // The constant pool is nearly full, so put the constant
+            // together from two halves: (high << 16) + low.
+            short low = (short) value;
+            out.write(SIPUSH);
+            u2(out, (value - low) >> 16);
+            out.write(BIPUSH);
+            out.write(16);
+            out.write(ISHL);
+            out.write(SIPUSH);
+            u2(out, low);
+            out.write(IADD);
+        }
+    }
+
+    private static void constant(ByteArrayOutputStream out, int index) {
+        if (index < 256) {
+            out.write(LDC);
+            out.write(index);
+        }
+        else {
+            out.write(LDC_W);
+            u2(out, index);
+        }
+    }
+
+    private void invoke(ByteArrayOutputStream out, int op,
+                        String owner, String method, String descriptor) {
+        out.write(op);
+        u2(out, builder.methodRef(owner, method, descriptor));
+    }
+
+    private static void u2(ByteArrayOutputStream out, int value) {
+        out.write(value >> 8);
+        out.write(value);
+    }
+
+    /**
+     * @param op a Bytecode opcode
+     * @return how many values it takes off the stack
+     */
+    private static int pops(int op) {
+        switch (op) {
+            case Bytecode.ADD:
+            case Bytecode.SUB:
+            case Bytecode.MUL:
+            case Bytecode.DIV:
+                return 2;
+            case Bytecode.PUSH:
+            case Bytecode.LOAD:
+                return 0;
+            default:
+                return 1;
+        }
+    }
+
+    /**
+     * @param op a Bytecode opcode
+     * @return the number of values it pushes minus the number it pops
+     */
+    private static int effect(int op) {
+        switch (op) {
+            case Bytecode.PUSH:
+            case Bytecode.LOAD:
+            case Bytecode.DUP:
+                return 1;
+            case Bytecode.NEG:
+            case Bytecode.SQRT:
+                return 0;
+            default:
+                return -1;
+        }
+    }
+
+    /**
+     * Compile a program and run it, with the same report as
+     * {@link Machine#execute(List)}.
+     *
+     * @param args the name of an assembly language source file,
+     *             or of an object file
+     */
+    public static void main(String[] args) {
+        if (args.length != 1) {
+            System.err.println("Usage: java dendron.jit.JitCompiler program-file");
+            System.exit(1);
+        }
+        Bytecode program;
+        if (args[0].endsWith(ObjectFile.EXTENSION)) {
+            try {
+                program = ObjectFile.load(Paths.get(args[0]));
+            }
+            catch (IOException ioe) {
+                System.err.println(ioe.getMessage());
+                System.exit(1);
+                return;
+            }
+        }
+        else {
+            List<Machine.Instruction> code = InstructionReader.assemble(args[0]);
+            if (code == null) {
+                System.exit(1);
+            }
+            program = Bytecode.from(code);
+        }
+        compile(program).execute();
+    }
+}
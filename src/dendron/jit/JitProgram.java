@@ -0,0 +1,15 @@
+package dendron.jit;
+
+/**
+ * What a Dendron program compiled to JVM bytecode looks like from the
+ * outside. The {@link JitCompiler} generates classes that implement it.
+ */
+public interface JitProgram {
+    /**
+     * Run the program.
+     *
+     * @param variables the program's variables, indexed by slot; their
+     *                  final values are left here
+     */
+    void run(int[] variables);
+}
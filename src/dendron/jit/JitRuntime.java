@@ -0,0 +1,39 @@
+package dendron.jit;
+
+import dendron.Errors;
+import dendron.Output;
+import dendron.machine.Machine;
+
+/**
+ * Operations that compiled Dendron programs call rather than
+ * doing themselves.
+ */
+public class JitRuntime {
+
+    /**
+     * Do not instantiate this class.
+     */
+    private JitRuntime() {
+    }
+
+    /**
+     * The PRINT instruction, which prints to the default sink.
+     *
+     * @param value the value to print
+     */
+    public static void print(int value) {
+        Output.sink().print(Machine.MARKER, value);
+    }
+
+    /**
+     * Report the use of a variable that cannot have a value yet.
+     *
+     * @param name the variable
+     * @return nothing, since the program is stopped; the int return
+     * type lets the call stand in for the variable's value
+     */
+    public static int uninitialized(String name) {
+        Errors.report(Errors.Type.UNINITIALIZED, name);
+        return 0;
+    }
+}
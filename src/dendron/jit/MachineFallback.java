@@ -0,0 +1,44 @@
+package dendron.jit;
+
+import dendron.machine.Bytecode;
+import dendron.machine.Machine;
+import dendron.machine.SymbolTable;
+
+import java.util.Map;
+
+/**
+ * A program the {@link JitCompiler} could not turn into JVM bytecode,
+ * such as one long statement whose code cannot be split into methods
+ * small enough for the JVM. It runs on a Machine instead, one per
+ * thread, with the same results and errors.
+ */
+class MachineFallback implements JitProgram {
+
+    private final Bytecode program;
+    private final ThreadLocal<Machine> machines = ThreadLocal.withInitial(Machine::new);
+
+    /**
+     * @param program the encoded program
+     */
+    MachineFallback(Bytecode program) {
+        this.program = program;
+    }
+
+    /**
+     * @param variables the program's variables, indexed by slot; the
+     *                  values the program gives them are left here
+     */
+    @Override
+    public void run(int[] variables) {
+        Machine machine = machines.get();
+        machine.run(program);
+        SymbolTable symbols = program.symbols();
+        Map<String, Integer> values = machine.symbolTable();
+        for (int slot = 0; slot < symbols.size(); slot++) {
+            Integer value = values.get(symbols.name(slot));
+            if (value != null) {
+                variables[slot] = value;
+            }
+        }
+    }
+}
@@ -0,0 +1,306 @@
+package dendron.machine;
+
+import dendron.Errors;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs one program over many rows of input at once. The inputs are
+ * given as columns, one int array per variable, and each instruction
+ * is done for a whole block of rows in a simple loop before the next
+ * instruction starts, so the dispatch cost is paid once per block
+ * rather than once per row. The loops have no calls or branches in
+ * them, so HotSpot can compile them to SIMD instructions.
+ * <p>
+ * The results are the same as running the program once per row on a
+ * Machine whose variables had been given the row's input values
+ * beforehand. Nothing is printed; the values of each PRINT are
+ * collected as a column instead.
+ */
+public class BatchMachine {
+
+    /**
+     * How many rows are run through the program at a time, chosen so
+     * that the columns being worked on stay in the cache
+     */
+    public static final int BLOCK = 1024;
+
+    private final int[] code;
+    private final SymbolTable symbols;
+
+    // The stack holds references to columns. A LOAD pushes the
+    // variable's own column; results go into the buffer belonging
+    // to the stack position they end up at.
+    private final int[][] stack;
+    private final int[][] buffers;
+    private final int[][] variables;
+    private boolean[] defined;
+
+    /**
+     * @param program the program to run; it is not changed
+     */
+    public BatchMachine(Bytecode program) {
+        this.code = program.code();
+        this.symbols = program.symbols();
+        this.stack = new int[program.maxStack()][];
+        this.buffers = new int[program.maxStack()][BLOCK];
+        this.variables = new int[symbols.size()][];
+    }
+
+    /**
+     * @param program a list of Machine instructions; it is linked
+     *                first if it is not already a {@link Code}
+     */
+    public BatchMachine(List<Machine.Instruction> program) {
+        this(Bytecode.from(program));
+    }
+
+    /**
+     * Run the program once for every row of the input.
+     *
+     * @param inputs the starting values of some of the program's
+     *               variables, all columns the same length. Names the
+     *               program does not use are ignored.
+     * @return the final values of the variables, and the printed values
+     * @throws IllegalArgumentException if the columns differ in length
+     */
+    public Result run(Map<String, int[]> inputs) {
+        int rows = -1;
+        int[][] in = new int[symbols.size()][];
+        for (Map.Entry<String, int[]> input : inputs.entrySet()) {
+            if (rows >= 0 && input.getValue().length != rows) {
+                throw new IllegalArgumentException("Column " + input.getKey() +
+                        " has " + input.getValue().length + " rows, not " + rows);
+            }
+            rows = input.getValue().length;
+            int slot = symbols.find(input.getKey());
+            if (slot >= 0) {
+                in[slot] = input.getValue();
+            }
+        }
+        return run(in, Math.max(rows, 0));
+    }
+
+    /**
+     * Run the program once for every row of the input.
+     *
+     * @param in   the starting values of the variables, by slot; null
+     *             for a variable that is not an input
+     * @param rows how many rows there are
+     * @return the final values of the variables, and the printed values
+     */
+    private Result run(int[][] in, int rows) {
+        int[][] out = new int[symbols.size()][];
+        List<int[]> printed = new ArrayList<>();
+        for (int start = 0; start < rows; start += BLOCK) {
+            int length = Math.min(BLOCK, rows - start);
+            for (int slot = 0; slot < variables.length; slot++) {
+                if (in[slot] != null) {
+                    if (variables[slot] == null) {
+                        variables[slot] = new int[BLOCK];
+                    }
+                    System.arraycopy(in[slot], start, variables[slot], 0, length);
+                }
+            }
+            defined = new boolean[symbols.size()];
+            for (int slot = 0; slot < in.length; slot++) {
+                defined[slot] = in[slot] != null;
+            }
+            int print = 0;
+            int pc = 0;
+            int sp = 0;
+            while (pc < code.length) {
+                switch (code[pc++]) {
+                    case Bytecode.PUSH: {
+                        int[] result = buffers[sp];
+                        Arrays.fill(result, 0, length, code[pc++]);
+                        stack[sp++] = result;
+                        break;
+                    }
+                    case Bytecode.LOAD: {
+                        int slot = code[pc++];
+                        if (!defined[slot]) {
+                            Errors.report(Errors.Type.UNINITIALIZED, symbols.name(slot));
+                        }
+                        stack[sp++] = variables[slot];
+                        break;
+                    }
+                    case Bytecode.STORE:
+                        store(code[pc++], --sp, length);
+                        break;
+                    case Bytecode.ADD: {
+                        int[] b = stack[--sp];
+                        int[] a = stack[sp - 1];
+                        int[] result = buffers[sp - 1];
+                        for (int i = 0; i < length; i++) {
+                            result[i] = a[i] + b[i];
+                        }
+                        stack[sp - 1] = result;
+                        break;
+                    }
+                    case Bytecode.SUB: {
+                        int[] b = stack[--sp];
+                        int[] a = stack[sp - 1];
+                        int[] result = buffers[sp - 1];
+                        for (int i = 0; i < length; i++) {
+                            result[i] = a[i] - b[i];
+                        }
+                        stack[sp - 1] = result;
+                        break;
+                    }
+                    case Bytecode.MUL: {
+                        int[] b = stack[--sp];
+                        int[] a = stack[sp - 1];
+                        int[] result = buffers[sp - 1];
+                        for (int i = 0; i < length; i++) {
+                            result[i] = a[i] * b[i];
+                        }
+                        stack[sp - 1] = result;
+                        break;
+                    }
+                    case Bytecode.DIV: {
+                        int[] b = stack[--sp];
+                        int[] a = stack[sp - 1];
+                        int[] result = buffers[sp - 1];
+                        for (int i = 0; i < length; i++) {
+                            result[i] = a[i] / b[i];
+                        }
+                        stack[sp - 1] = result;
+                        break;
+                    }
+                    case Bytecode.NEG: {
+                        int[] a = stack[sp - 1];
+                        int[] result = buffers[sp - 1];
+                        for (int i = 0; i < length; i++) {
+                            result[i] = -a[i];
+                        }
+                        stack[sp - 1] = result;
+                        break;
+                    }
+                    case Bytecode.SQRT: {
+                        int[] a = stack[sp - 1];
+                        int[] result = buffers[sp - 1];
+                        for (int i = 0; i < length; i++) {
+                            result[i] = (int) Math.sqrt(a[i]);
+                        }
+                        stack[sp - 1] = result;
+                        break;
+                    }
+                    case Bytecode.PRINT: {
+                        if (print == printed.size()) {
+                            printed.add(new int[rows]);
+                        }
+                        System.arraycopy(stack[--sp], 0, printed.get(print++), start, length);
+                        break;
+                    }
+                    case Bytecode.DUP:
+                        stack[sp] = stack[sp - 1];
+                        sp++;
+                        break;
+                }
+            }
+            for (int slot = 0; slot < variables.length; slot++) {
+                if (defined[slot]) {
+                    if (out[slot] == null) {
+                        out[slot] = new int[rows];
+                    }
+                    System.arraycopy(variables[slot], 0, out[slot], start, length);
+                }
+            }
+        }
+        return new Result(symbols, out, printed, rows);
+    }
+
+    /**
+     * The STORE instruction, for a block of rows.
+     *
+     * @param slot   the variable
+     * @param top    the stack position of the value
+     * @param length how many rows are in the block
+     */
+    private void store(int slot, int top, int length) {
+        int[] old = variables[slot];
+        // Anything further down the stack that is still the variable's
+        // old column must keep the old values.
+        for (int sp = 0; sp < top; sp++) {
+            if (stack[sp] == old) {
+                System.arraycopy(old, 0, buffers[sp], 0, length);
+                stack[sp] = buffers[sp];
+            }
+        }
+        if (stack[top] == buffers[top]) {
+            // The value is a result nothing else refers to, so the
+            // variable takes it and its old column becomes the buffer.
+            variables[slot] = buffers[top];
+            buffers[top] = old == null ? new int[BLOCK] : old;
+        }
+        else {
+            if (old == null) {
+                old = variables[slot] = new int[BLOCK];
+            }
+            System.arraycopy(stack[top], 0, old, 0, length);
+        }
+        defined[slot] = true;
+    }
+
+    /**
+     * What a batch run produced, in columns.
+     */
+    public static class Result {
+        private final SymbolTable symbols;
+        private final int[][] columns;
+        private final List<int[]> printed;
+        private final int rows;
+
+        private Result(SymbolTable symbols, int[][] columns, List<int[]> printed, int rows) {
+            this.symbols = symbols;
+            this.columns = columns;
+            this.printed = printed;
+            this.rows = rows;
+        }
+
+        /**
+         * @return how many rows were run
+         */
+        public int rows() {
+            return rows;
+        }
+
+        /**
+         * @param name a variable
+         * @return the variable's final value in each row, or null if it
+         * has none (or there were no rows)
+         */
+        public int[] column(String name) {
+            int slot = symbols.find(name);
+            return slot < 0 ? null : columns[slot];
+        }
+
+        /**
+         * @return the final values of all the variables that have one,
+         * by name
+         */
+        public Map<String, int[]> columns() {
+            Map<String, int[]> result = new LinkedHashMap<>();
+            for (int slot = 0; slot < columns.length; slot++) {
+                if (columns[slot] != null) {
+                    result.put(symbols.name(slot), columns[slot]);
+                }
+            }
+            return result;
+        }
+
+        /**
+         * @return a column for each PRINT executed, in order, holding
+         * the value printed in each row
+         */
+        public List<int[]> printed() {
+            return Collections.unmodifiableList(printed);
+        }
+    }
+}
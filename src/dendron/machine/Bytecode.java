@@ -0,0 +1,218 @@
+package dendron.machine;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A compact encoding of a Machine program: one int array holding each
+ * instruction's opcode, followed by its operand if it has one (the
+ * constant of a PUSH, the variable slot of a LOAD or STORE).
+ * <p>
+ * This form is meant for execution by {@link Machine#run(Bytecode)},
+ * which interprets it in a single switch loop instead of calling
+ * an object per instruction. The object form is still the one to use
+ * for listings ({@link Machine#displayInstructions(List)}).
+ */
+public class Bytecode {
+
+    // These equal the ordinals of the corresponding Opcode constants,
+    // so that they can be used as case labels in the dispatch loop.
+    public static final int PUSH = 0;
+    public static final int LOAD = 1;
+    public static final int STORE = 2;
+    public static final int ADD = 3;
+    public static final int SUB = 4;
+    public static final int MUL = 5;
+    public static final int DIV = 6;
+    public static final int NEG = 7;
+    public static final int SQRT = 8;
+    public static final int PRINT = 9;
+    public static final int DUP = 10;
+
+    private final int[] code;
+    private final SymbolTable symbols;
+    private final int instructions;
+    private final int maxStack;
+    private final int[] counts = new int[DUP + 1];
+
+    /**
+     * Wrap an encoded program, checking that it is well formed and
+     * working out how deep its stack gets.
+     *
+     * @param code    the opcodes and operands
+     * @param symbols the names of the variables the LOAD and STORE slots refer to
+     * @throws IllegalArgumentException if the code contains an unknown opcode,
+     *                                  is missing an operand, uses a slot
+     *                                  outside the symbol table, or has an
+     *                                  instruction that takes more values than
+     *                                  the stack holds there ("Stack underflow
+     *                                  at pc")
+     */
+    public Bytecode(int[] code, SymbolTable symbols) {
+        this.code = code;
+        this.symbols = symbols;
+        int count = 0;
+        int depth = 0;
+        int max = 0;
+        int pc = 0;
+        while (pc < code.length) {
+            int start = pc;
+            int op = code[pc++];
+            if (op < 0 || op > DUP) {
+                throw new IllegalArgumentException(
+                        "Illegal opcode " + op + " at " + (pc - 1));
+            }
+            if (Opcode.of(op).hasOperand()) {
+                if (pc == code.length) {
+                    throw new IllegalArgumentException(
+                            "Missing operand at " + pc);
+                }
+                int operand = code[pc++];
+                if (op != PUSH && (operand < 0 || operand >= symbols.size())) {
+                    throw new IllegalArgumentException(
+                            "Illegal slot " + operand + " at " + (pc - 1));
+                }
+            }
+            if (depth < stackNeeded(op)) {
+                throw new IllegalArgumentException("Stack underflow at " + start);
+            }
+            counts[op]++;
+            depth += stackEffect(op);
+            max = Math.max(max, depth);
+            count++;
+        }
+        this.instructions = count;
+        this.maxStack = max;
+    }
+
+    /**
+     * Encode a program given in object form. Superinstructions are
+     * encoded as the instructions they stand for.
+     *
+     * @param program a list of Machine instructions; it is linked
+     *                first if it is not already a {@link Code}
+     * @return the equivalent Bytecode
+     */
+    public static Bytecode from(List<Machine.Instruction> program) {
+        Code linked = Code.link(program);
+        int[] code = new int[2 * linked.size()];
+        int pc = 0;
+        for (Machine.Instruction instr : linked) {
+            if (instr instanceof Superinstructions.Fused) {
+                for (Machine.Instruction part : ((Superinstructions.Fused) instr).parts()) {
+                    if (pc + 2 > code.length) {
+                        code = Arrays.copyOf(code, 2 * code.length);
+                    }
+                    pc = encode(part, code, pc);
+                }
+            }
+            else {
+                if (pc + 2 > code.length) {
+                    code = Arrays.copyOf(code, 2 * code.length);
+                }
+                pc = encode(instr, code, pc);
+            }
+        }
+        return new Bytecode(Arrays.copyOf(code, pc), linked.symbols());
+    }
+
+    /**
+     * Encode one instruction.
+     *
+     * @param instr an instruction other than a superinstruction
+     * @param code  where to put it; there must be room for two ints
+     * @param pc    where in the code to put it
+     * @return where the next instruction goes
+     */
+    private static int encode(Machine.Instruction instr, int[] code, int pc) {
+        Opcode op = instr.opcode();
+        code[pc++] = op.ordinal();
+        if (op.hasOperand()) {
+            code[pc++] = instr.operand();
+        }
+        return pc;
+    }
+
+    /**
+     * How an instruction changes the depth of the stack.
+     *
+     * @param op an opcode
+     * @return the number of values pushed minus the number popped
+     */
+    static int stackEffect(int op) {
+        switch (op) {
+            case PUSH:
+            case LOAD:
+            case DUP:
+                return 1;
+            case STORE:
+            case PRINT:
+            case ADD:
+            case SUB:
+            case MUL:
+            case DIV:
+                return -1;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * How many values an instruction takes off the stack, or needs on it.
+     *
+     * @param op an opcode
+     * @return the least depth of stack the instruction can run on
+     */
+    static int stackNeeded(int op) {
+        switch (op) {
+            case ADD:
+            case SUB:
+            case MUL:
+            case DIV:
+                return 2;
+            case STORE:
+            case PRINT:
+            case NEG:
+            case SQRT:
+            case DUP:
+                return 1;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * @return the opcodes and operands. The array is shared, not copied.
+     */
+    public int[] code() {
+        return code;
+    }
+
+    /**
+     * @return the names of the variables the slots in the code refer to
+     */
+    public SymbolTable symbols() {
+        return symbols;
+    }
+
+    /**
+     * @return how many instructions the code holds
+     */
+    public int instructionCount() {
+        return instructions;
+    }
+
+    /**
+     * @return how many times each opcode appears in the code, by value
+     */
+    int[] opcodeCounts() {
+        return counts;
+    }
+
+    /**
+     * @return the deepest the stack gets while the code runs
+     */
+    public int maxStack() {
+        return maxStack;
+    }
+}
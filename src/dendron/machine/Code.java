@@ -0,0 +1,233 @@
+package dendron.machine;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.RandomAccess;
+
+/**
+ * A linked Machine program: its instructions, in order, plus the
+ * symbol table that gives every LOAD and STORE the slot of its variable.
+ * <p>
+ * It is still a {@code List<Machine.Instruction>}, so it can be handed
+ * to anything that takes the plain list form.
+ * <p>
+ * Each variable has one LOAD and one STORE instruction, which every
+ * use of it in the program shares; see {@link #load} and {@link #store}.
+ * Every instruction put into the list is bound to the program's symbol
+ * table on the way in (see {@link #bind}), so the instructions of a
+ * Code are always linked, however it was built.
+ */
+public class Code extends AbstractList<Machine.Instruction> implements RandomAccess {
+
+    private final SymbolTable symbols;
+    private Machine.Instruction[] instructions = new Machine.Instruction[16];
+    private int size = 0;
+    // The shared LOAD and STORE instructions, by slot
+    private Machine.Load[] loads = new Machine.Load[0];
+    private Machine.Store[] stores = new Machine.Store[0];
+
+    /**
+     * Create an empty program with an empty symbol table.
+     */
+    public Code() {
+        this(new SymbolTable());
+    }
+
+    /**
+     * Create an empty program that shares the given symbol table.
+     *
+     * @param symbols the table the program's variables will be put in
+     */
+    public Code(SymbolTable symbols) {
+        this.symbols = symbols;
+    }
+
+    /**
+     * @param index where in the program
+     * @return the instruction there
+     */
+    @Override
+    public Machine.Instruction get(int index) {
+        Objects.checkIndex(index, size);
+        return instructions[index];
+    }
+
+    /**
+     * @return how many instructions the program has
+     */
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param index where in the program
+     * @param instr the instruction to put there, which is bound first
+     * @return the instruction that was there
+     */
+    @Override
+    public Machine.Instruction set(int index, Machine.Instruction instr) {
+        Objects.checkIndex(index, size);
+        Machine.Instruction old = instructions[index];
+        instructions[index] = bind(instr);
+        return old;
+    }
+
+    /**
+     * @param instr the instruction to add at the end, which is bound first
+     * @return true
+     */
+    @Override
+    public boolean add(Machine.Instruction instr) {
+        instr = bind(instr);
+        ensureCapacity(size + 1);
+        instructions[size++] = instr;
+        modCount++;
+        return true;
+    }
+
+    /**
+     * @param index where in the program
+     * @param instr the instruction to insert there, which is bound first
+     */
+    @Override
+    public void add(int index, Machine.Instruction instr) {
+        Objects.checkIndex(index, size + 1);
+        instr = bind(instr);
+        ensureCapacity(size + 1);
+        System.arraycopy(instructions, index, instructions, index + 1, size - index);
+        instructions[index] = instr;
+        size++;
+        modCount++;
+    }
+
+    /**
+     * @param index where in the program
+     * @return the instruction that was there
+     */
+    @Override
+    public Machine.Instruction remove(int index) {
+        Objects.checkIndex(index, size);
+        Machine.Instruction old = instructions[index];
+        System.arraycopy(instructions, index + 1, instructions, index, size - index - 1);
+        instructions[--size] = null;
+        modCount++;
+        return old;
+    }
+
+    /**
+     * Make room for a number of instructions.
+     *
+     * @param capacity how many instructions the program will hold
+     */
+    public void ensureCapacity(int capacity) {
+        if (capacity > instructions.length) {
+            instructions = Arrays.copyOf(instructions,
+                    Math.max(capacity, 2 * instructions.length));
+        }
+    }
+
+    /**
+     * @return the table giving the slot of each of this program's variables
+     */
+    public SymbolTable symbols() {
+        return symbols;
+    }
+
+    /**
+     * @param name a variable's name
+     * @return the LOAD instruction for the variable, bound to its slot
+     */
+    public Machine.Load load(String name) {
+        int slot = symbols.slot(name);
+        grow(slot);
+        if (loads[slot] == null) {
+            loads[slot] = new Machine.Load(name, slot);
+        }
+        return loads[slot];
+    }
+
+    /**
+     * @param name a variable's name
+     * @return the STORE instruction for the variable, bound to its slot
+     */
+    public Machine.Store store(String name) {
+        int slot = symbols.slot(name);
+        grow(slot);
+        if (stores[slot] == null) {
+            stores[slot] = new Machine.Store(name, slot);
+        }
+        return stores[slot];
+    }
+
+    /**
+     * Make room for a slot in the tables of shared instructions.
+     *
+     * @param slot the slot
+     */
+    private void grow(int slot) {
+        if (slot >= loads.length) {
+            int size = Math.max(slot + 1, 2 * loads.length);
+            loads = Arrays.copyOf(loads, size);
+            stores = Arrays.copyOf(stores, size);
+        }
+    }
+
+    /**
+     * Resolve the variables of a program to slots. This is done once,
+     * when the program is built, so that executing it never has to
+     * look up a name.
+     *
+     * @param program a list of Machine instructions
+     * @return the program itself if it is a Code, whose instructions
+     * are always linked, otherwise a linked copy of it
+     */
+    public static Code link(List<Machine.Instruction> program) {
+        if (program instanceof Code) {
+            return (Code) program;
+        }
+        Code result = new Code();
+        result.ensureCapacity(program.size());
+        result.addAll(program);
+        return result;
+    }
+
+    /**
+     * Give an instruction the slot of the variable it uses, if any.
+     *
+     * @param instr the instruction as written
+     * @return the equivalent instruction, bound to this program's symbol table
+     * @throws IllegalArgumentException if the instruction is a
+     *                                  superinstruction whose variables are in
+     *                                  other slots of this table
+     */
+    public Machine.Instruction bind(Machine.Instruction instr) {
+        if (instr instanceof Machine.Load) {
+            int slot = instr.operand();
+            if (slot >= 0 && slot < loads.length && loads[slot] == instr) {
+                return instr;
+            }
+            return load(((Machine.Load) instr).name());
+        }
+        if (instr instanceof Machine.Store) {
+            int slot = instr.operand();
+            if (slot >= 0 && slot < stores.length && stores[slot] == instr) {
+                return instr;
+            }
+            return store(((Machine.Store) instr).name());
+        }
+        if (instr instanceof Superinstructions.Fused) {
+            for (Machine.Instruction part : ((Superinstructions.Fused) instr).parts()) {
+                String name = part instanceof Machine.Load ? ((Machine.Load) part).name() :
+                        part instanceof Machine.Store ? ((Machine.Store) part).name() : null;
+                if (name != null && symbols.find(name) != part.operand()) {
+                    throw new IllegalArgumentException(
+                            "Not linked against this program: " + instr);
+                }
+            }
+        }
+        return instr;
+    }
+}
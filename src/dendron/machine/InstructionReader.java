@@ -1,67 +1,350 @@
 package dendron.machine;
 
-import dendron.machine.Machine;
-
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.file.Paths;
 import java.util.*;
-import java.util.function.Function;
+import java.util.function.Consumer;
 
 /**
  * Assemble instructions from a file.
  * This is a project debugging aid.
+ * <p>
+ * The text is tokenized by hand out of a character buffer. Instructions
+ * without operands are the shared instances in {@link Machine}, and each
+ * variable gets one LOAD and one STORE instance that every use of it
+ * shares (when assembling, those of the {@link Code} being filled), so
+ * assembling allocates little more than the PUSH instructions and the
+ * program itself. A variable is found from the characters of its token,
+ * so no String is made for it after its first use.
  *
  * @author James Heliotis
  */
 public class InstructionReader {
 
-    private static Map< String, Function< Scanner, Machine.Instruction> > gen
-            = new HashMap< String, Function< Scanner, Machine.Instruction > >()
-    {{
-        put( "PUSH", in -> { int i = in.nextInt();
-                             return new Machine.PushConst( i ); } );
-        put( "LOAD", in -> { String v = in.next();
-                             return new Machine.Load( v ); } );
-        put( "STORE", in -> { String v = in.next();
-                              return new Machine.Store( v ); } );
-        put( "ADD", in -> new Machine.Add());
-        put( "SUB", in -> new Machine.Subtract() );
-        put( "MUL", in -> new Machine.Multiply() );
-        put( "DIV", in -> new Machine.Divide() );
-        put( "NEG", in -> new Machine.Negate() );
-        put( "SQRT", in -> new Machine.SquareRoot() );
-        put( "PRINT", in -> new Machine.Print() );
-    }};
+    private static final int BUFFER_SIZE = 8192;
+
+    private static final Opcode[] OPCODES = Opcode.values();
+
+    private static final Machine.Instruction[] SHARED =
+            new Machine.Instruction[ OPCODES.length ];
+    static {
+        SHARED[ Opcode.ADD.ordinal() ] = Machine.ADD;
+        SHARED[ Opcode.SUB.ordinal() ] = Machine.SUBTRACT;
+        SHARED[ Opcode.MUL.ordinal() ] = Machine.MULTIPLY;
+        SHARED[ Opcode.DIV.ordinal() ] = Machine.DIVIDE;
+        SHARED[ Opcode.NEG.ordinal() ] = Machine.NEGATE;
+        SHARED[ Opcode.SQRT.ordinal() ] = Machine.SQUARE_ROOT;
+        SHARED[ Opcode.PRINT.ordinal() ] = Machine.PRINT;
+        SHARED[ Opcode.DUP.ordinal() ] = Machine.DUPLICATE;
+    }
+
+    private final Reader in;
+    private final SymbolTable symbols;
+    // The program being assembled, if there is one, whose LOAD and STORE
+    // instructions are used so that it need not look them up again
+    private final Code code;
+
+    // The current token is buf[ start, end ). Unread text is buf[ pos, limit ).
+    private char[] buf = new char[ BUFFER_SIZE ];
+    private int pos = 0;
+    private int limit = 0;
+    private int start = 0;
+    private int end = 0;
+    private int intValue;
+
+    // Open-addressed table of the variables seen so far, with their
+    // LOAD and STORE instructions, looked up by the token's characters.
+    private String[] names = new String[ 64 ];
+    private Machine.Load[] loads = new Machine.Load[ 64 ];
+    private Machine.Store[] stores = new Machine.Store[ 64 ];
+    private int variables = 0;
+
+    private InstructionReader( Reader in, SymbolTable symbols, Code code ) {
+        this.in = in;
+        this.symbols = symbols;
+        this.code = code;
+    }
 
     /**
      * Read instructions from the named file and translate them
      * to internal form.
      * @param assyFile the name of the text file containing the assembly code
-     * @return a list of Machine.Instruction objects, ready to execute
+     * @return a list of Machine.Instruction objects, ready to execute,
+     *         with their variables already resolved to slots
      */
     public static List< Machine.Instruction > assemble( String assyFile ) {
-        try ( FileInputStream fileStr = new FileInputStream( assyFile ) ) {
-            List< Machine.Instruction > result = new LinkedList<>();
-            Scanner in = new Scanner( fileStr );
-            while ( in.hasNext() ) {
-                String mnemonic = in.next();
-                if ( gen.containsKey( mnemonic ) ) {
-                    result.add( gen.get( mnemonic ).apply( in ) );
+        try ( Reader text = new InputStreamReader(
+                                new FileInputStream( assyFile ) ) ) {
+            return assemble( text );
+        }
+        catch( IOException ioe ) {
+            System.err.println( "Could not open file " + assyFile );
+        }
+        return null;
+    }
+
+    /**
+     * Read instructions from some text and translate them to internal form.
+     * @param source the assembly code
+     * @return the program, ready to execute, with its variables
+     *         already resolved to slots
+     * @throws IOException if the text cannot be read
+     */
+    public static Code assemble( Reader source ) throws IOException {
+        Code result = new Code();
+        new InstructionReader( source, result.symbols(), result )
+                .decode( result::add );
+        return result;
+    }
+
+    /**
+     * Read instructions from some text and hand each one on as soon as
+     * it has been decoded, e.g. to a Machine that executes it right away.
+     * Illegal instructions are reported on standard error and skipped.
+     * @param source the assembly code
+     * @param symbols the table to put the program's variables in
+     * @param sink what to give each instruction to, in order
+     * @throws IOException if the text cannot be read
+     */
+    public static void stream( Reader source, SymbolTable symbols,
+                               Consumer< Machine.Instruction > sink )
+            throws IOException {
+        new InstructionReader( source, symbols, null ).decode( sink );
+    }
+
+    /**
+     * Execute assembly code on a Machine while it is being read.
+     * @param source the assembly code
+     * @param machine the Machine to run it on; it is reset first
+     * @throws IOException if the text cannot be read
+     */
+    public static void run( Reader source, Machine machine )
+            throws IOException {
+        SymbolTable symbols = new SymbolTable();
+        machine.start( symbols );
+        try {
+            stream( source, symbols, machine::step );
+        }
+        finally {
+            machine.finish();
+        }
+    }
+
+    /**
+     * Decode the whole source.
+     * @param sink what to give each instruction to, in order
+     * @throws IOException if the text cannot be read
+     */
+    private void decode( Consumer< Machine.Instruction > sink )
+            throws IOException {
+        while ( nextToken() ) {
+            Opcode op = mnemonic();
+            if ( op == null ) {
+                System.err.println( "Illegal assembly instr " + token() );
+                continue;
+            }
+            if ( op.hasOperand() && !nextToken() ) {
+                System.err.println( "Missing operand for " + op );
+                return;
+            }
+            switch ( op ) {
+                case PUSH:
+                    if ( parseInt() ) {
+                        sink.accept( new Machine.PushConst( intValue ) );
+                    }
+                    else {
+                        System.err.println(
+                                "Illegal assembly operand " + token() );
+                    }
+                    break;
+                case LOAD: {
+                    int v = variable(); // may grow the tables
+                    sink.accept( loads[ v ] );
+                    break;
                 }
-                else {
-                    System.err.println( "Illegal assembly instr " + mnemonic );
+                case STORE: {
+                    int v = variable();
+                    sink.accept( stores[ v ] );
+                    break;
                 }
+                default:
+                    sink.accept( SHARED[ op.ordinal() ] );
             }
-            return result;
         }
-        catch( IOException ioe ) {
-            System.err.println( "Could not open file " + assyFile );
+    }
+
+    /**
+     * Move to the next whitespace-delimited token.
+     * @return false if there are no more tokens
+     * @throws IOException if the text cannot be read
+     */
+    private boolean nextToken() throws IOException {
+        while ( true ) {
+            if ( pos == limit ) {
+                pos = 0;
+                limit = Math.max( 0, in.read( buf, 0, buf.length ) );
+                if ( limit == 0 ) return false;
+            }
+            if ( !Character.isWhitespace( buf[ pos ] ) ) break;
+            pos++;
+        }
+        start = pos;
+        while ( true ) {
+            if ( pos == limit ) {
+                // The token runs off the end of the buffer. Keep what
+                // there is of it and read more after it.
+                int length = pos - start;
+                if ( start > 0 ) {
+                    System.arraycopy( buf, start, buf, 0, length );
+                    start = 0;
+                    pos = limit = length;
+                }
+                else if ( length == buf.length ) {
+                    buf = Arrays.copyOf( buf, 2 * buf.length );
+                }
+                int n = in.read( buf, limit, buf.length - limit );
+                if ( n <= 0 ) break;
+                limit += n;
+            }
+            if ( Character.isWhitespace( buf[ pos ] ) ) break;
+            pos++;
+        }
+        end = pos;
+        return true;
+    }
+
+    /**
+     * @return the opcode spelled by the current token, or null if none is
+     */
+    private Opcode mnemonic() {
+        for ( Opcode op: OPCODES ) {
+            if ( op != Opcode.FUSED && tokenIs( op.name() ) ) return op;
         }
         return null;
     }
 
+    /**
+     * @param word some text
+     * @return true if the current token is exactly the text
+     */
+    private boolean tokenIs( String word ) {
+        int length = end - start;
+        if ( word.length() != length ) return false;
+        for ( int i = 0; i < length; i++ ) {
+            if ( buf[ start + i ] != word.charAt( i ) ) return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return a copy of the current token
+     */
+    private String token() {
+        return new String( buf, start, end - start );
+    }
+
+    /**
+     * Convert the current token to an integer, leaving it in intValue.
+     * @return false if the token is not a decimal int
+     */
+    private boolean parseInt() {
+        int i = start;
+        boolean negative = false;
+        if ( buf[ i ] == '-' || buf[ i ] == '+' ) {
+            negative = buf[ i ] == '-';
+            i++;
+        }
+        if ( i == end ) return false;
+        long value = 0;
+        for ( ; i < end; i++ ) {
+            int digit = buf[ i ] - '0';
+            if ( digit < 0 || digit > 9 ) return false;
+            value = value * 10 + digit;
+            if ( value > 1L + Integer.MAX_VALUE ) return false;
+        }
+        value = negative ? -value : value;
+        if ( value > Integer.MAX_VALUE ) return false;
+        intValue = ( int )value;
+        return true;
+    }
+
+    /**
+     * Find the variable named by the current token, adding it to the
+     * symbol table and getting its instructions if it is new: from the
+     * program being assembled, which then takes them as they are, or
+     * made here when instructions are only being streamed.
+     * @return its index in the names, loads and stores tables
+     */
+    private int variable() {
+        int hash = 0;
+        for ( int i = start; i < end; i++ ) {
+            hash = 31 * hash + buf[ i ];
+        }
+        int mask = names.length - 1;
+        int index = ( hash ^ ( hash >>> 16 ) ) & mask;
+        while ( names[ index ] != null ) {
+            if ( tokenIs( names[ index ] ) ) return index;
+            index = ( index + 1 ) & mask;
+        }
+        String name = token();
+        names[ index ] = name;
+        if ( code != null ) {
+            loads[ index ] = code.load( name );
+            stores[ index ] = code.store( name );
+        }
+        else {
+            int slot = symbols.slot( name );
+            loads[ index ] = new Machine.Load( name, slot );
+            stores[ index ] = new Machine.Store( name, slot );
+        }
+        if ( ++variables * 2 > names.length ) {
+            rehash();
+            return find( name );
+        }
+        return index;
+    }
+
+    /**
+     * Double the size of the variable table.
+     */
+    private void rehash() {
+        String[] oldNames = names;
+        Machine.Load[] oldLoads = loads;
+        Machine.Store[] oldStores = stores;
+        names = new String[ 2 * oldNames.length ];
+        loads = new Machine.Load[ names.length ];
+        stores = new Machine.Store[ names.length ];
+        for ( int i = 0; i < oldNames.length; i++ ) {
+            if ( oldNames[ i ] != null ) {
+                int index = find( oldNames[ i ] );
+                names[ index ] = oldNames[ i ];
+                loads[ index ] = oldLoads[ i ];
+                stores[ index ] = oldStores[ i ];
+            }
+        }
+    }
+
+    /**
+     * @param name a variable name
+     * @return where the name is, or the free entry where it belongs
+     */
+    private int find( String name ) {
+        int hash = name.hashCode();
+        int mask = names.length - 1;
+        int index = ( hash ^ ( hash >>> 16 ) ) & mask;
+        while ( names[ index ] != null && !names[ index ].equals( name ) ) {
+            index = ( index + 1 ) & mask;
+        }
+        return index;
+    }
+
     /**
      * Assemble and execute some Dendron machine code.
+     * An object file (see {@link ObjectFile}) is loaded instead
+     * of assembled.
      * @param args the name of the assembly language source file
      */
     public static void main( String[] args ) {
@@ -70,6 +353,17 @@ public class InstructionReader {
                     "Usage: java InstructionReader assembly-code-file" );
             System.exit( 1 );
         }
+        if ( args[ 0 ].endsWith( ObjectFile.EXTENSION ) ) {
+            try {
+                Machine.execute( ObjectFile.load( Paths.get( args[ 0 ] ) ) );
+            }
+            catch( IOException ioe ) {
+                System.err.println( "Could not load file " + args[ 0 ] +
+                                    ": " + ioe.getMessage() );
+                System.exit( 1 );
+            }
+            return;
+        }
         List< Machine.Instruction > code = assemble( args[ 0 ] );
         Machine.execute( code );
     }
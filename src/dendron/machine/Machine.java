@@ -3,6 +3,8 @@ package dendron.machine;
 import java.util.*;
 
 import dendron.Errors;
+import dendron.Output;
+import dendron.OutputSink;
 
 /**
  * An abstraction of a computing machine that reads instructions
@@ -10,9 +12,10 @@ import dendron.Errors;
  * for variables (instead of general-purpose memory), and a
  * value stack on which calculations are performed.
  * <p>
- * (Everything is static to avoid the need to master the subtleties
- * of nested class instantiation or to pass the symbol table and
- * stack into every instruction when it executes.)
+ * Each Machine instance has its own stack and registers, and the
+ * instructions are handed the Machine they run on, so any number of
+ * Machines can run programs at the same time, one per thread.
+ * A single Machine is not safe to share between threads.
  * <p>
  * THIS CLASS IS NOW COMPLETE AS OF 3/9/2018
  *
@@ -21,18 +24,27 @@ import dendron.Errors;
  */
 public class Machine {
 
-    /**
-     * Do not instatiate this class.
-     */
-    private Machine() {
-    }
-
     public static interface Instruction {
         /**
-         * Run this instruction on the Machine, using the Machine's
+         * Run this instruction on a Machine, using that Machine's
          * value stack and symbol table.
+         *
+         * @param machine the Machine executing the program
+         */
+        void execute(Machine machine);
+
+        /**
+         * @return which operation this instruction performs
          */
-        void execute();
+        Opcode opcode();
+
+        /**
+         * @return the constant pushed or the variable slot used by this
+         * instruction, or 0 if its opcode takes no operand
+         */
+        default int operand() {
+            return 0;
+        }
 
         /**
          * Show the instruction using text so it can be understood
@@ -44,17 +56,59 @@ public class Machine {
         String toString();
     }
 
-    private static Map<String, Integer> table = null;
-    private static Stack<Integer> stack = null;
+    /*
+     * Shared instances of the instructions that have no operand.
+     * They hold no state, so one of each serves every program.
+     */
+    public static final Instruction ADD = new Add();
+    public static final Instruction SUBTRACT = new Subtract();
+    public static final Instruction MULTIPLY = new Multiply();
+    public static final Instruction DIVIDE = new Divide();
+    public static final Instruction NEGATE = new Negate();
+    public static final Instruction SQUARE_ROOT = new SquareRoot();
+    public static final Instruction PRINT = new Print();
+    public static final Instruction DUPLICATE = new Duplicate();
+
+    /**
+     * What is printed in front of each value the PRINT instruction prints
+     */
+    public static final String MARKER = "*** ";
+
+    private SymbolTable symbols = new SymbolTable();
+    private int[] registers = new int[0];
+    private boolean[] defined = new boolean[0];
+    private final OperandStack stack = new OperandStack();
+    private int[] scratch = new int[OperandStack.INITIAL_CAPACITY];
+    private OutputSink output = null;
+    private int[] counts = null;
+    private TraceBuffer trace = null;
+    private int steps = 0;
 
     /**
-     * Reset the Machine to a pristine state.
+     * Create a Machine with an empty stack and no variables.
+     */
+    public Machine() {
+    }
+
+    /**
+     * Reset the Machine to a pristine state, with one register
+     * for each variable of the program about to run.
+     * The stack's storage is kept for reuse.
      *
-     * @see Machine#execute
+     * @param symbols the variables of the program about to run
+     * @see Machine#run
      */
-    private static void reset() {
-        stack = new Stack<>();
-        table = new HashMap<>();
+    private void reset(SymbolTable symbols) {
+        stack.clear();
+        this.symbols = symbols;
+        int size = symbols.size();
+        if (registers.length == size) {
+            Arrays.fill(defined, false);
+        }
+        else {
+            registers = new int[size];
+            defined = new boolean[size];
+        }
     }
 
     /**
@@ -74,23 +128,332 @@ public class Machine {
     }
 
     /**
-     * Run a "compiled" program by executing in order each instruction
-     * contained therein.
+     * Run a "compiled" program on a new Machine by executing in order
+     * each instruction contained therein.
      * Report on the final size of the stack (should normally be empty)
      * and the contents of the symbol table.
      *
      * @param program a list of Machine instructions
      */
     public static void execute(List<Instruction> program) {
-        reset();
+        Machine machine = new Machine();
         System.out.println("Executing compiled code...");
-        for (Instruction instr : program) {
-            instr.execute();
-        }
+        machine.run(program);
+        machine.output().flush();
+        System.out.println("Machine: execution ended with " +
+                machine.stackSize() + " items left on the stack.");
+        System.out.println();
+        Errors.dump(machine.symbolTable());
+    }
+
+    /**
+     * Run a program in Bytecode form on a new Machine, with the same
+     * report as {@link #execute(List)}.
+     *
+     * @param program the encoded program
+     */
+    public static void execute(Bytecode program) {
+        Machine machine = new Machine();
+        System.out.println("Executing compiled code...");
+        machine.run(program);
+        machine.output().flush();
         System.out.println("Machine: execution ended with " +
-                stack.size() + " items left on the stack.");
+                machine.stackSize() + " items left on the stack.");
         System.out.println();
-        Errors.dump(table);
+        Errors.dump(machine.symbolTable());
+    }
+
+    /**
+     * Run a "compiled" program on this Machine without reporting
+     * anything afterwards. The Machine is reset first.
+     *
+     * @param program a list of Machine instructions; it is linked
+     *                first if it is not already a {@link Code}
+     * @return the number of items left on the stack
+     */
+    public int run(List<Instruction> program) {
+        Code code = Code.link(program);
+        reset(code.symbols());
+        MachineStats stats = MachineStats.current();
+        if (stats != null || trace != null) {
+            return runInstrumented(code, stats);
+        }
+        for (int pc = 0, n = code.size(); pc < n; pc++) {
+            code.get(pc).execute(this);
+        }
+        return stack.size();
+    }
+
+    /**
+     * Run a linked program, counting what it does, tracing it, or both.
+     *
+     * @param code  the program; the Machine has been reset for it
+     * @param stats where to add the counts when the program is done,
+     *              or null if counting is off
+     * @return the number of items left on the stack
+     */
+    private int runInstrumented(Code code, MachineStats stats) {
+        long start = System.nanoTime();
+        if (counts == null) {
+            counts = new int[Opcode.values().length];
+        }
+        Arrays.fill(counts, 0);
+        int highWater = 0;
+        final TraceBuffer tr = trace;
+        if (tr != null) {
+            tr.activate();
+        }
+        try {
+            for (int pc = 0; pc < code.size(); pc++) {
+                Instruction instr = code.get(pc);
+                if (tr != null) {
+                    tr.record(pc, instr.opcode().ordinal(), instr.operand(), stack.size(),
+                            stack.isEmpty() ? 0 : stack.peek());
+                }
+                counts[instr.opcode().ordinal()]++;
+                instr.execute(this);
+                highWater = Math.max(highWater, stack.size());
+            }
+        }
+        finally {
+            if (tr != null) {
+                tr.deactivate();
+            }
+        }
+        if (stats != null) {
+            stats.record(counts, highWater, symbols.size(), System.nanoTime() - start);
+        }
+        return stack.size();
+    }
+
+    /**
+     * Prepare this Machine to be handed a program one instruction at a
+     * time, e.g. as it is being read. The Machine is reset.
+     *
+     * @param symbols the table the program's variables are being put in;
+     *                it may keep growing while the program runs
+     * @see #step
+     * @see #finish
+     */
+    public void start(SymbolTable symbols) {
+        reset(symbols);
+        steps = 0;
+        if (trace != null) {
+            trace.activate();
+        }
+    }
+
+    /**
+     * End a program begun with {@link #start}, whether it ran to the end
+     * or stopped with an error. Until this is called, this Machine's trace
+     * is the one dumped if an error is reported on this thread.
+     */
+    public void finish() {
+        if (trace != null) {
+            trace.deactivate();
+        }
+    }
+
+    /**
+     * Execute the next instruction of a program begun with {@link #start}.
+     *
+     * @param instr an instruction linked against the started program's symbol table
+     */
+    public void step(Instruction instr) {
+        if (registers.length < symbols.size()) {
+            int size = Math.max(symbols.size(), 2 * registers.length);
+            registers = Arrays.copyOf(registers, size);
+            defined = Arrays.copyOf(defined, size);
+        }
+        if (trace != null) {
+            trace.record(steps, instr.opcode().ordinal(), instr.operand(), stack.size(),
+                    stack.isEmpty() ? 0 : stack.peek());
+        }
+        instr.execute(this);
+        steps++;
+    }
+
+    /**
+     * Run a program in Bytecode form on this Machine without reporting
+     * anything afterwards. The Machine is reset first. The results are
+     * the same as running the object form of the program.
+     *
+     * @param program the encoded program
+     * @return the number of items left on the stack
+     * @see Bytecode#from
+     */
+    public int run(Bytecode program) {
+        MachineStats stats = MachineStats.current();
+        long start = stats == null ? 0 : System.nanoTime();
+        reset(program.symbols());
+        if (scratch.length < program.maxStack()) {
+            scratch = new int[program.maxStack()];
+        }
+        final int[] code = program.code();
+        final int[] values = scratch;
+        final int[] regs = registers;
+        final boolean[] def = defined;
+        final OutputSink out = output();
+        int sp = 0;
+        int pc = 0;
+        final TraceBuffer tr = trace;
+        if (tr != null) {
+            tr.activate();
+        }
+        try {
+            while (pc < code.length) {
+                if (tr != null) {
+                    int op = code[pc];
+                    tr.record(pc, op, op <= Bytecode.STORE ? code[pc + 1] : 0,
+                            sp, sp > 0 ? values[sp - 1] : 0);
+                }
+                switch (code[pc++]) {
+                    case Bytecode.PUSH:
+                        values[sp++] = code[pc++];
+                        break;
+                    case Bytecode.LOAD: {
+                        int slot = code[pc++];
+                        if (!def[slot]) {
+                            Errors.report(Errors.Type.UNINITIALIZED, symbols.name(slot));
+                        }
+                        values[sp++] = regs[slot];
+                        break;
+                    }
+                    case Bytecode.STORE: {
+                        int slot = code[pc++];
+                        regs[slot] = values[--sp];
+                        def[slot] = true;
+                        break;
+                    }
+                    case Bytecode.ADD:
+                        sp--;
+                        values[sp - 1] += values[sp];
+                        break;
+                    case Bytecode.SUB:
+                        sp--;
+                        values[sp - 1] -= values[sp];
+                        break;
+                    case Bytecode.MUL:
+                        sp--;
+                        values[sp - 1] *= values[sp];
+                        break;
+                    case Bytecode.DIV:
+                        sp--;
+                        values[sp - 1] /= values[sp];
+                        break;
+                    case Bytecode.NEG:
+                        values[sp - 1] = -values[sp - 1];
+                        break;
+                    case Bytecode.SQRT:
+                        values[sp - 1] = (int) Math.sqrt(values[sp - 1]);
+                        break;
+                    case Bytecode.PRINT:
+                        out.print(MARKER, values[--sp]);
+                        break;
+                    case Bytecode.DUP:
+                        values[sp] = values[sp - 1];
+                        sp++;
+                        break;
+                    default:
+                        throw new IllegalStateException("Illegal opcode " + code[pc - 1]);
+                }
+            }
+        }
+        finally {
+            if (tr != null) {
+                tr.deactivate();
+            }
+        }
+        for (int i = 0; i < sp; i++) {
+            stack.push(values[i]);
+        }
+        if (stats != null) {
+            // Programs have no branches, so every instruction ran once.
+            stats.record(program.opcodeCounts(), program.maxStack(),
+                    symbols.size(), System.nanoTime() - start);
+        }
+        return sp;
+    }
+
+    /**
+     * Send this Machine's PRINT output somewhere other than the
+     * default sink.
+     *
+     * @param output where PRINT sends values; null for the default
+     * @see Output#sink()
+     */
+    public void setOutput(OutputSink output) {
+        this.output = output;
+    }
+
+    /**
+     * Record the instructions this Machine executes from now on.
+     *
+     * @param trace where to record them; null to stop tracing
+     */
+    public void setTrace(TraceBuffer trace) {
+        this.trace = trace;
+    }
+
+    /**
+     * @return where this Machine records the instructions it executes,
+     * or null if it is not tracing
+     */
+    public TraceBuffer trace() {
+        return trace;
+    }
+
+    /**
+     * @return where PRINT sends values
+     */
+    public OutputSink output() {
+        return output != null ? output : Output.sink();
+    }
+
+    /**
+     * @return the number of items on the stack
+     */
+    public int stackSize() {
+        return stack.size();
+    }
+
+    /**
+     * @return the variables given a value by the last program run,
+     * and their values
+     */
+    public Map<String, Integer> symbolTable() {
+        return symbols.toMap(registers, defined);
+    }
+
+    /**
+     * @return the operand stack, for instructions defined outside this class
+     */
+    OperandStack stack() {
+        return stack;
+    }
+
+    /**
+     * Read a variable, reporting an error if it has not been given a value.
+     *
+     * @param slot the variable's register
+     * @return the variable's value
+     */
+    int load(int slot) {
+        if (!defined[slot]) {
+            Errors.report(Errors.Type.UNINITIALIZED, symbols.name(slot));
+        }
+        return registers[slot];
+    }
+
+    /**
+     * Give a variable a value.
+     *
+     * @param slot  the variable's register
+     * @param value the new value
+     */
+    void store(int slot, int value) {
+        registers[slot] = value;
+        defined[slot] = true;
     }
 
     /**
@@ -102,10 +465,18 @@ public class Machine {
          * Run the microsteps for the ADD instruction.
          */
         @Override
-        public void execute() {
-            int op2 = stack.pop();
-            int op1 = stack.pop();
-            stack.push(op1 + op2);
+        public void execute(Machine machine) {
+            int op2 = machine.stack.pop();
+            int op1 = machine.stack.pop();
+            machine.stack.push(op1 + op2);
+        }
+
+        /**
+         * @return Opcode.ADD
+         */
+        @Override
+        public Opcode opcode() {
+            return Opcode.ADD;
         }
 
         /**
@@ -128,21 +499,62 @@ public class Machine {
          */
         private String name;
 
+        /**
+         * register holding the target variable, or -1 until linked
+         */
+        private final int slot;
+
         /**
          * Create a STORE instruction
          *
          * @param ident the name of the target variable
          */
         public Store(String ident) {
+            this(ident, -1);
+        }
+
+        /**
+         * Create a STORE instruction whose variable has been resolved.
+         *
+         * @param ident the name of the target variable
+         * @param slot  the register of the target variable
+         * @see Code#link
+         */
+        public Store(String ident, int slot) {
             this.name = ident;
+            this.slot = slot;
+        }
+
+        /**
+         * @return the name of the target variable
+         */
+        public String name() {
+            return this.name;
         }
 
         /**
          * Run the microsteps for the STORE instruction.
          */
         @Override
-        public void execute() {
-            table.put(this.name, stack.pop());
+        public void execute(Machine machine) {
+            machine.registers[slot] = machine.stack.pop();
+            machine.defined[slot] = true;
+        }
+
+        /**
+         * @return Opcode.STORE
+         */
+        @Override
+        public Opcode opcode() {
+            return Opcode.STORE;
+        }
+
+        /**
+         * @return the slot of the variable
+         */
+        @Override
+        public int operand() {
+            return slot;
         }
 
         /**
@@ -162,10 +574,18 @@ public class Machine {
     public static class Subtract implements Instruction {
 
         @Override
-        public void execute() {
-            int op1 = stack.pop();
-            int op2 = stack.pop();
-            stack.push(op2 - op1);
+        public void execute(Machine machine) {
+            int op1 = machine.stack.pop();
+            int op2 = machine.stack.pop();
+            machine.stack.push(op2 - op1);
+        }
+
+        /**
+         * @return Opcode.SUB
+         */
+        @Override
+        public Opcode opcode() {
+            return Opcode.SUB;
         }
 
         /**
@@ -186,10 +606,18 @@ public class Machine {
          * Pops then pushes.
          */
         @Override
-        public void execute() {
-            int op1 = stack.pop();
-            int op2 = stack.pop();
-            stack.push(op1 * op2);
+        public void execute(Machine machine) {
+            int op1 = machine.stack.pop();
+            int op2 = machine.stack.pop();
+            machine.stack.push(op1 * op2);
+        }
+
+        /**
+         * @return Opcode.MUL
+         */
+        @Override
+        public Opcode opcode() {
+            return Opcode.MUL;
         }
 
         /**
@@ -210,10 +638,18 @@ public class Machine {
         /**
          * pops elements and then divides
          */
-        public void execute() {
-            int op1 = stack.pop();
-            int op2 = stack.pop();
-            stack.push(op2 / op1);
+        public void execute(Machine machine) {
+            int op1 = machine.stack.pop();
+            int op2 = machine.stack.pop();
+            machine.stack.push(op2 / op1);
+        }
+
+        /**
+         * @return Opcode.DIV
+         */
+        @Override
+        public Opcode opcode() {
+            return Opcode.DIV;
         }
 
         /**
@@ -243,8 +679,24 @@ public class Machine {
          * Push onto stack
          */
         @Override
-        public void execute() {
-            stack.push(this.i);
+        public void execute(Machine machine) {
+            machine.stack.push(this.i);
+        }
+
+        /**
+         * @return Opcode.PUSH
+         */
+        @Override
+        public Opcode opcode() {
+            return Opcode.PUSH;
+        }
+
+        /**
+         * @return the constant to push
+         */
+        @Override
+        public int operand() {
+            return this.i;
         }
 
         /**
@@ -261,21 +713,57 @@ public class Machine {
      */
     public static class Load implements Instruction {
         private String v;
+        private final int slot;
 
         /**
          * @param v creates a field to load onto the stack
          */
         public Load(String v) {
+            this(v, -1);
+        }
+
+        /**
+         * @param v    the name of the variable to load onto the stack
+         * @param slot the register holding the variable
+         * @see Code#link
+         */
+        public Load(String v, int slot) {
             this.v = v;
+            this.slot = slot;
+        }
+
+        /**
+         * @return the name of the variable
+         */
+        public String name() {
+            return this.v;
+        }
+
+        /**
+         * Pushes the variable onto the stack by reading its register.
+         */
+        @Override
+        public void execute(Machine machine) {
+            if (!machine.defined[slot]) {
+                Errors.report(Errors.Type.UNINITIALIZED, v);
+            }
+            machine.stack.push(machine.registers[slot]);
+        }
+
+        /**
+         * @return Opcode.LOAD
+         */
+        @Override
+        public Opcode opcode() {
+            return Opcode.LOAD;
         }
 
         /**
-         * Pushes the variable onto the stack by calling its symTab
-         * representation.
+         * @return the slot of the variable
          */
         @Override
-        public void execute() {
-            stack.push(table.get(v));
+        public int operand() {
+            return slot;
         }
 
         /**
@@ -295,10 +783,18 @@ public class Machine {
          * Pops off the stack and then pushes the negated value in
          */
         @Override
-        public void execute() {
-            int var = stack.pop();
+        public void execute(Machine machine) {
+            int var = machine.stack.pop();
             var = var * -1;
-            stack.push(var);
+            machine.stack.push(var);
+        }
+
+        /**
+         * @return Opcode.NEG
+         */
+        @Override
+        public Opcode opcode() {
+            return Opcode.NEG;
         }
 
         /**
@@ -309,6 +805,38 @@ public class Machine {
         }
     }
 
+    /**
+     * The DUP instruction
+     * Pushes a second copy of the value on top of the stack.
+     */
+    public static class Duplicate implements Instruction {
+        /**
+         * Run the microsteps for the DUP instruction.
+         */
+        @Override
+        public void execute(Machine machine) {
+            machine.stack.push(machine.stack.peek());
+        }
+
+        /**
+         * @return Opcode.DUP
+         */
+        @Override
+        public Opcode opcode() {
+            return Opcode.DUP;
+        }
+
+        /**
+         * Show the DUP instruction as plain text.
+         *
+         * @return "DUP"
+         */
+        @Override
+        public String toString() {
+            return "DUP";
+        }
+    }
+
     /**
      * Class to makes sure that the square root of the operation can be calculated.
      */
@@ -318,10 +846,18 @@ public class Machine {
          * Pushes the new value onto stack
          */
         @Override
-        public void execute() {
-            int num = stack.pop();
+        public void execute(Machine machine) {
+            int num = machine.stack.pop();
             int sqrt = (int) Math.sqrt(num);
-            stack.push(sqrt);
+            machine.stack.push(sqrt);
+        }
+
+        /**
+         * @return Opcode.SQRT
+         */
+        @Override
+        public Opcode opcode() {
+            return Opcode.SQRT;
         }
 
         /**
@@ -344,9 +880,16 @@ public class Machine {
          * Popss and prints the value of the stack
          */
         @Override
-        public void execute() {
-            System.out.println("*** " + stack.pop());
+        public void execute(Machine machine) {
+            machine.output().print(MARKER, machine.stack.pop());
+        }
 
+        /**
+         * @return Opcode.PRINT
+         */
+        @Override
+        public Opcode opcode() {
+            return Opcode.PRINT;
         }
 
         /**
@@ -0,0 +1,102 @@
+package dendron.machine;
+
+import dendron.Errors;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs many Machine programs in parallel on a fixed pool of threads.
+ * Each worker thread keeps its own Machine and reuses it for every
+ * program it is given, so the only state the workers share is the
+ * (read-only) programs themselves.
+ * <p>
+ * An error in a program stops only that program: on the workers a
+ * report throws an {@link Errors.Abort} (see
+ * {@link Errors#throwOnReport(boolean)}), which the program's Future
+ * gives back as the cause of an ExecutionException, and the worker
+ * goes on to the next program.
+ */
+public class MachinePool implements AutoCloseable {
+
+    private final ExecutorService workers;
+    private final ThreadLocal<Machine> machines = ThreadLocal.withInitial(Machine::new);
+
+    /**
+     * Create a pool with one thread per available processor.
+     */
+    public MachinePool() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Create a pool.
+     *
+     * @param threads how many programs may run at the same time
+     */
+    public MachinePool(int threads) {
+        this.workers = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(() -> {
+                Errors.throwOnReport(true);
+                r.run();
+            }, "dendron-machine");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Queue a program to be run on the next free Machine.
+     * Linking the program beforehand (see {@link Code#link}) saves each
+     * run from doing it.
+     *
+     * @param program a list of Machine instructions
+     * @return the program's final symbol table, when it is done; if
+     * the program reports an error, getting it throws an
+     * ExecutionException whose cause is an {@link Errors.Abort}
+     */
+    public Future<Map<String, Integer>> submit(List<Machine.Instruction> program) {
+        return workers.submit(() -> {
+            Machine machine = machines.get();
+            machine.run(program);
+            return machine.symbolTable();
+        });
+    }
+
+    /**
+     * Run a batch of programs and wait for all of them to finish.
+     *
+     * @param programs the programs to run
+     * @return each program's final symbol table, in the same order
+     * @throws ExecutionException if any program failed; its cause is
+     *                            the program's exception, an
+     *                            {@link Errors.Abort} if it reported an error
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public List<Map<String, Integer>> runAll(
+            List<? extends List<Machine.Instruction>> programs)
+            throws ExecutionException, InterruptedException {
+        List<Future<Map<String, Integer>>> pending = new ArrayList<>(programs.size());
+        for (List<Machine.Instruction> program : programs) {
+            pending.add(submit(program));
+        }
+        List<Map<String, Integer>> results = new ArrayList<>(programs.size());
+        for (Future<Map<String, Integer>> result : pending) {
+            results.add(result.get());
+        }
+        return results;
+    }
+
+    /**
+     * Stop the worker threads once the queued programs are done.
+     */
+    @Override
+    public void close() {
+        workers.shutdown();
+    }
+}
@@ -0,0 +1,172 @@
+package dendron.machine;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Counts of what Machines do while running programs: how many times
+ * each opcode is executed, how deep the stack gets, how many variables
+ * programs have, and how long they take.
+ * <p>
+ * Counting is off until {@link #enable()} is called. While it is off,
+ * a Machine runs exactly the code it would run without this class,
+ * after one check per program. While it is on, each Machine counts
+ * into its own arrays and adds them to the shared counters, which are
+ * striped, once at the end of each program, so threads running
+ * programs at the same time do not contend.
+ */
+public class MachineStats implements MachineStatsMXBean {
+
+    /**
+     * The name the counters are registered under with the platform
+     * MBean server
+     */
+    public static final String OBJECT_NAME = "dendron:type=Machine";
+
+    private static volatile MachineStats current = null;
+
+    private final LongAdder programs = new LongAdder();
+    private final LongAdder instructions = new LongAdder();
+    private final LongAdder[] opcodes = new LongAdder[Opcode.values().length];
+    private final LongAccumulator stackHighWater = new LongAccumulator(Math::max, 0);
+    private final LongAccumulator maxSymbols = new LongAccumulator(Math::max, 0);
+    private final LongAdder nanos = new LongAdder();
+
+    private MachineStats() {
+        for (int op = 0; op < opcodes.length; op++) {
+            opcodes[op] = new LongAdder();
+        }
+    }
+
+    /**
+     * Start counting, and make the counts visible over JMX.
+     * If counting is already on, nothing changes.
+     *
+     * @return the counters
+     * @throws IllegalStateException if the MBean cannot be registered
+     */
+    public static synchronized MachineStats enable() {
+        if (current == null) {
+            MachineStats stats = new MachineStats();
+            try {
+                MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+                ObjectName name = new ObjectName(OBJECT_NAME);
+                if (server.isRegistered(name)) {
+                    server.unregisterMBean(name);
+                }
+                server.registerMBean(stats, name);
+            }
+            catch (JMException e) {
+                throw new IllegalStateException("Could not register " + OBJECT_NAME, e);
+            }
+            current = stats;
+        }
+        return current;
+    }
+
+    /**
+     * Stop counting, and remove the counts from JMX.
+     */
+    public static synchronized void disable() {
+        if (current != null) {
+            current = null;
+            try {
+                ManagementFactory.getPlatformMBeanServer()
+                        .unregisterMBean(new ObjectName(OBJECT_NAME));
+            }
+            catch (JMException e) {
+                // Someone else unregistered it; there is nothing to undo.
+            }
+        }
+    }
+
+    /**
+     * @return the counters, or null if counting is off
+     */
+    public static MachineStats current() {
+        return current;
+    }
+
+    /**
+     * Add the counts from one program run.
+     *
+     * @param counts     how many times each opcode was executed, by ordinal
+     * @param stackDepth the deepest the stack got
+     * @param symbols    how many variables the program had
+     * @param time       how long the program took, in nanoseconds
+     */
+    void record(int[] counts, int stackDepth, int symbols, long time) {
+        long total = 0;
+        for (int op = 0; op < counts.length; op++) {
+            if (counts[op] != 0) {
+                opcodes[op].add(counts[op]);
+                total += counts[op];
+            }
+        }
+        instructions.add(total);
+        programs.increment();
+        stackHighWater.accumulate(stackDepth);
+        maxSymbols.accumulate(symbols);
+        nanos.add(time);
+    }
+
+    @Override
+    public long getPrograms() {
+        return programs.sum();
+    }
+
+    @Override
+    public long getInstructions() {
+        return instructions.sum();
+    }
+
+    @Override
+    public Map<String, Long> getOpcodeCounts() {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        for (Opcode op : Opcode.values()) {
+            counts.put(op.name(), opcodes[op.ordinal()].sum());
+        }
+        return counts;
+    }
+
+    /**
+     * @param op an opcode
+     * @return how many times it has been executed
+     */
+    public long count(Opcode op) {
+        return opcodes[op.ordinal()].sum();
+    }
+
+    @Override
+    public long getStackHighWater() {
+        return stackHighWater.get();
+    }
+
+    @Override
+    public long getMaxSymbols() {
+        return maxSymbols.get();
+    }
+
+    @Override
+    public long getWallTimeNanos() {
+        return nanos.sum();
+    }
+
+    @Override
+    public void reset() {
+        programs.reset();
+        instructions.reset();
+        for (LongAdder count : opcodes) {
+            count.reset();
+        }
+        stackHighWater.reset();
+        maxSymbols.reset();
+        nanos.reset();
+    }
+}
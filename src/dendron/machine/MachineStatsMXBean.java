@@ -0,0 +1,45 @@
+package dendron.machine;
+
+import java.util.Map;
+
+/**
+ * What {@link MachineStats} shows over JMX, under the name
+ * {@value MachineStats#OBJECT_NAME}.
+ */
+public interface MachineStatsMXBean {
+
+    /**
+     * @return how many programs have been run
+     */
+    long getPrograms();
+
+    /**
+     * @return how many instructions have been executed in all
+     */
+    long getInstructions();
+
+    /**
+     * @return how many times each opcode has been executed, by name
+     */
+    Map<String, Long> getOpcodeCounts();
+
+    /**
+     * @return the deepest any program's stack has been
+     */
+    long getStackHighWater();
+
+    /**
+     * @return the most variables any program has had
+     */
+    long getMaxSymbols();
+
+    /**
+     * @return the total time spent running programs, in nanoseconds
+     */
+    long getWallTimeNanos();
+
+    /**
+     * Set all the counts back to zero.
+     */
+    void reset();
+}
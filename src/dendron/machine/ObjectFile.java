@@ -0,0 +1,208 @@
+package dendron.machine;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Reads and writes assembled Dendron programs in a binary object format,
+ * so that they can be loaded without being assembled again.
+ * <p>
+ * Layout (all integers little-endian):
+ * <pre>
+ *   magic         4 bytes  "DNDO"
+ *   version       int      {@value #VERSION}
+ *   symbolCount   int      number of variable names
+ *   codeLength    int      number of ints in the code section
+ *   symbols       symbolCount entries of (unsigned short length, UTF-8 bytes),
+ *                 in slot order, then zero padding to a multiple of 4 bytes
+ *   code          codeLength ints: the {@link Bytecode} opcode stream
+ * </pre>
+ * PUSH constants and LOAD/STORE slots are kept inline in the code
+ * section, in exactly the form {@link Machine#run(Bytecode)} executes,
+ * so loading the code is a single bulk copy out of the mapped file.
+ */
+public class ObjectFile {
+
+    /**
+     * The first bytes of every object file
+     */
+    public static final byte[] MAGIC = {'D', 'N', 'D', 'O'};
+
+    /**
+     * The format version this class writes. Version 1 files, which
+     * predate the DUP instruction, can still be read.
+     */
+    public static final int VERSION = 2;
+
+    /**
+     * The extension given to object files by the converter
+     */
+    public static final String EXTENSION = ".dobj";
+
+    private static final int HEADER_SIZE = 16;
+
+    /**
+     * Do not instantiate this class.
+     */
+    private ObjectFile() {
+    }
+
+    /**
+     * Write a program to an object file, replacing any existing file.
+     *
+     * @param program the encoded program
+     * @param file    where to write it
+     * @throws IOException if the file cannot be written
+     */
+    public static void write(Bytecode program, Path file) throws IOException {
+        SymbolTable symbols = program.symbols();
+        byte[][] names = new byte[symbols.size()][];
+        int symbolBytes = 0;
+        for (int slot = 0; slot < names.length; slot++) {
+            names[slot] = symbols.name(slot).getBytes(StandardCharsets.UTF_8);
+            if (names[slot].length > 0xFFFF) {
+                throw new IOException("Variable name too long: slot " + slot);
+            }
+            symbolBytes += 2 + names[slot].length;
+        }
+        int[] code = program.code();
+        int codeStart = align(HEADER_SIZE + symbolBytes);
+        ByteBuffer out = ByteBuffer.allocate(codeStart + 4 * code.length)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        out.put(MAGIC);
+        out.putInt(VERSION);
+        out.putInt(names.length);
+        out.putInt(code.length);
+        for (byte[] name : names) {
+            out.putShort((short) name.length);
+            out.put(name);
+        }
+        out.position(codeStart);
+        out.asIntBuffer().put(code);
+        out.position(0);
+        try (FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (out.hasRemaining()) {
+                channel.write(out);
+            }
+        }
+    }
+
+    /**
+     * Load a program from an object file by mapping it into memory.
+     *
+     * @param file the object file
+     * @return the program it holds
+     * @throws IOException if the file cannot be read or is not a
+     *                     well-formed object file of a supported version
+     */
+    public static Bytecode load(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_SIZE || channel.size() > Integer.MAX_VALUE) {
+                throw new IOException(file + " is not a Dendron object file");
+            }
+            MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            in.order(ByteOrder.LITTLE_ENDIAN);
+            for (byte b : MAGIC) {
+                if (in.get() != b) {
+                    throw new IOException(file + " is not a Dendron object file");
+                }
+            }
+            int version = in.getInt();
+            if (version < 1 || version > VERSION) {
+                throw new IOException(file + ": unsupported object file version " + version);
+            }
+            int symbolCount = in.getInt();
+            int codeLength = in.getInt();
+            // The counts are checked against what is left of the file
+            // before anything is made of that size, so that a corrupt
+            // header cannot ask for more memory than the file could fill.
+            // Each name takes at least its 2-byte length.
+            if (symbolCount < 0 || symbolCount > in.remaining() / 2) {
+                throw new IOException(file + " is corrupt: " + symbolCount + " variables");
+            }
+            try {
+                SymbolTable symbols = new SymbolTable();
+                byte[] name = new byte[64];
+                for (int slot = 0; slot < symbolCount; slot++) {
+                    int length = Short.toUnsignedInt(in.getShort());
+                    if (name.length < length) {
+                        name = new byte[length];
+                    }
+                    in.get(name, 0, length);
+                    String ident = new String(name, 0, length, StandardCharsets.UTF_8);
+                    if (symbols.slot(ident) != slot) {
+                        throw new IOException(file + ": duplicate variable " + ident);
+                    }
+                }
+                in.position(align(in.position()));
+                if (codeLength < 0 || codeLength > in.remaining() / 4) {
+                    throw new IOException(file + " is corrupt: code length " + codeLength);
+                }
+                int[] code = new int[codeLength];
+                in.asIntBuffer().get(code);
+                return new Bytecode(code, symbols);
+            }
+            catch (RuntimeException e) {
+                throw new IOException(file + " is corrupt: " + e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * @param position a byte offset
+     * @return the offset rounded up to a multiple of 4
+     */
+    private static int align(int position) {
+        return (position + 3) & ~3;
+    }
+
+    /**
+     * Convert assembly files to object files. Each name.denm file is
+     * assembled and written as name.dobj beside it. A directory
+     * argument converts every .denm file in the directory.
+     *
+     * @param args the assembly files or directories to convert
+     */
+    public static void main(String[] args) {
+        if (args.length == 0) {
+            System.err.println(
+                    "Usage: java dendron.machine.ObjectFile assembly-file-or-directory...");
+            System.exit(1);
+        }
+        int failures = 0;
+        for (String arg : args) {
+            File[] files = new File(arg).isDirectory() ?
+                    new File(arg).listFiles((dir, name) -> name.endsWith(".denm")) :
+                    new File[]{new File(arg)};
+            for (File source : files) {
+                List<Machine.Instruction> code = InstructionReader.assemble(source.getPath());
+                if (code == null) {
+                    failures++;
+                    continue;
+                }
+                String base = source.getPath().replaceFirst("\\.denm$", "");
+                Path target = Paths.get(base + EXTENSION);
+                try {
+                    write(Bytecode.from(code), target);
+                    System.out.println(source + " -> " + target);
+                }
+                catch (IOException ioe) {
+                    System.err.println("Could not write file " + target + ": " + ioe.getMessage());
+                    failures++;
+                }
+            }
+        }
+        System.exit(failures == 0 ? 0 : 1);
+    }
+}
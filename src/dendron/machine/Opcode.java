@@ -0,0 +1,51 @@
+package dendron.machine;
+
+/**
+ * The operation codes of the Machine's instruction set, as used by the
+ * assembler and by the dense {@link Bytecode} form of a program.
+ */
+public enum Opcode {
+    PUSH(true),
+    LOAD(true),
+    STORE(true),
+    ADD(false),
+    SUB(false),
+    MUL(false),
+    DIV(false),
+    NEG(false),
+    SQRT(false),
+    PRINT(false),
+    DUP(false),
+
+    /**
+     * A superinstruction, standing for a sequence of the others. It is
+     * not an assembly mnemonic and never appears in Bytecode.
+     *
+     * @see Superinstructions
+     */
+    FUSED(false);
+
+    private static final Opcode[] CODES = values();
+
+    private final boolean hasOperand;
+
+    Opcode(boolean hasOperand) {
+        this.hasOperand = hasOperand;
+    }
+
+    /**
+     * @return true if instructions with this opcode carry an operand
+     * (a constant for PUSH, a variable slot for LOAD and STORE)
+     */
+    public boolean hasOperand() {
+        return hasOperand;
+    }
+
+    /**
+     * @param code an opcode's ordinal, as found in a Bytecode array
+     * @return the opcode with that ordinal
+     */
+    public static Opcode of(int code) {
+        return CODES[code];
+    }
+}
@@ -0,0 +1,112 @@
+package dendron.machine;
+
+import java.util.Arrays;
+import java.util.EmptyStackException;
+
+/**
+ * The Machine's value stack. Values are kept unboxed in an int array
+ * that grows geometrically, so pushing and popping never allocate once
+ * the stack has reached the depth a program needs.
+ * <p>
+ * This class is not synchronized; each stack belongs to one Machine.
+ */
+public class OperandStack {
+
+    /**
+     * How many values fit before the first growth. Expressions in the
+     * test programs rarely nest deeper than this.
+     */
+    public static final int INITIAL_CAPACITY = 16;
+
+    private int[] values;
+    private int size;
+
+    /**
+     * Create an empty stack with the default initial capacity.
+     */
+    public OperandStack() {
+        this(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Create an empty stack.
+     *
+     * @param capacity how many values to make room for before growing
+     */
+    public OperandStack(int capacity) {
+        this.values = new int[Math.max(1, capacity)];
+        this.size = 0;
+    }
+
+    /**
+     * Put a value on top of the stack, doubling the storage if it is full.
+     *
+     * @param value the value to push
+     */
+    public void push(int value) {
+        if (size == values.length) {
+            grow();
+        }
+        values[size++] = value;
+    }
+
+    /**
+     * Remove the value on top of the stack.
+     *
+     * @return the value that was on top
+     * @throws EmptyStackException if there is nothing to pop
+     */
+    public int pop() {
+        if (size == 0) {
+            throw new EmptyStackException();
+        }
+        return values[--size];
+    }
+
+    /**
+     * @return the value on top of the stack, without removing it
+     * @throws EmptyStackException if the stack is empty
+     */
+    public int peek() {
+        if (size == 0) {
+            throw new EmptyStackException();
+        }
+        return values[size - 1];
+    }
+
+    /**
+     * @return how many values are on the stack
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return true if there are no values on the stack
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Discard all values. The storage is kept for reuse.
+     */
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * @return how many values fit before the next growth
+     */
+    public int capacity() {
+        return values.length;
+    }
+
+    /**
+     * Double the storage (the growth policy of ArrayList would also do,
+     * but doubling keeps the number of copies logarithmic in the depth).
+     */
+    private void grow() {
+        values = Arrays.copyOf(values, values.length * 2);
+    }
+}
@@ -0,0 +1,307 @@
+package dendron.machine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A peephole optimizer for Machine programs. Instructions are copied
+ * one at a time into the optimized program, and after each one the
+ * rules get a chance to rewrite the end of what has been copied so far.
+ * Rules keep being tried until none of them applies, so rewrites can
+ * feed each other (a folded constant can be folded again).
+ * <p>
+ * The rules never remove or reorder a STORE or a PRINT, so an
+ * optimized program prints the same values and ends with the same
+ * symbol table as the original.
+ */
+public class Peephole {
+
+    /**
+     * A rewriting rule.
+     */
+    public static interface Rule {
+        /**
+         * Look at the end of the program optimized so far and,
+         * if it matches this rule's pattern, rewrite it there.
+         *
+         * @param code the optimized program so far
+         * @return true if the code was changed
+         */
+        boolean apply(List<Machine.Instruction> code);
+
+        /**
+         * @return a short name for the rule, for statistics
+         */
+        String name();
+    }
+
+    private final List<Rule> rules;
+    private final Map<String, Integer> hits = new LinkedHashMap<>();
+    private int before = 0;
+    private int after = 0;
+
+    /**
+     * Create an optimizer.
+     *
+     * @param rules the rules to apply, in order of preference
+     */
+    public Peephole(List<Rule> rules) {
+        this.rules = new ArrayList<>(rules);
+    }
+
+    /**
+     * @return an optimizer with all the rules in this class
+     */
+    public static Peephole standard() {
+        return new Peephole(Arrays.asList(
+                new FoldUnary(), new FoldBinary(), new Identity(),
+                new DoubleNegation(), new ForwardStore()));
+    }
+
+    /**
+     * Optimize a program. The statistics are reset first.
+     *
+     * @param program a list of Machine instructions; it is linked
+     *                first if it is not already a {@link Code}
+     * @return the optimized program, sharing the original's symbol table
+     */
+    public Code optimize(List<Machine.Instruction> program) {
+        Code linked = Code.link(program);
+        Code result = new Code(linked.symbols());
+        hits.clear();
+        for (Rule rule : rules) {
+            hits.put(rule.name(), 0);
+        }
+        for (Machine.Instruction instr : linked) {
+            result.add(instr);
+            boolean changed = true;
+            while (changed) {
+                changed = false;
+                for (Rule rule : rules) {
+                    if (rule.apply(result)) {
+                        hits.merge(rule.name(), 1, Integer::sum);
+                        changed = true;
+                        break;
+                    }
+                }
+            }
+        }
+        before = linked.size();
+        after = result.size();
+        return result;
+    }
+
+    /**
+     * @return how many instructions the last optimization removed
+     */
+    public int removed() {
+        return before - after;
+    }
+
+    /**
+     * @return how many times each rule fired in the last optimization
+     */
+    public Map<String, Integer> ruleHits() {
+        return hits;
+    }
+
+    /**
+     * @return a one-line summary of the last optimization
+     */
+    public String report() {
+        return String.format("Peephole: %d -> %d instructions (%d removed) %s",
+                before, after, removed(), hits);
+    }
+
+    /**
+     * @param code  some instructions
+     * @param back  how far from the end to look; 1 is the last instruction
+     * @param op    an opcode
+     * @return true if there is an instruction that far back with that opcode
+     */
+    private static boolean is(List<Machine.Instruction> code, int back, Opcode op) {
+        return code.size() >= back && code.get(code.size() - back).opcode() == op;
+    }
+
+    /**
+     * @param code  some instructions
+     * @param back  how far from the end to look
+     * @return that instruction's operand
+     */
+    private static int operand(List<Machine.Instruction> code, int back) {
+        return code.get(code.size() - back).operand();
+    }
+
+    /**
+     * Replace the last instructions of some code.
+     *
+     * @param code        some instructions
+     * @param count       how many to remove from the end
+     * @param replacement what to put in their place
+     */
+    private static void replace(List<Machine.Instruction> code, int count,
+                                Machine.Instruction... replacement) {
+        code.subList(code.size() - count, code.size()).clear();
+        code.addAll(Arrays.asList(replacement));
+    }
+
+    /**
+     * PUSH c; NEG becomes PUSH -c, and PUSH c; SQRT becomes PUSH sqrt(c).
+     */
+    public static class FoldUnary implements Rule {
+        @Override
+        public boolean apply(List<Machine.Instruction> code) {
+            if (!is(code, 2, Opcode.PUSH)) {
+                return false;
+            }
+            int c = operand(code, 2);
+            if (is(code, 1, Opcode.NEG)) {
+                replace(code, 2, new Machine.PushConst(-c));
+                return true;
+            }
+            if (is(code, 1, Opcode.SQRT)) {
+                replace(code, 2, new Machine.PushConst((int) Math.sqrt(c)));
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        public String name() {
+            return "fold-unary";
+        }
+    }
+
+    /**
+     * PUSH a; PUSH b; op becomes PUSH (a op b). A division by zero is
+     * left alone so that it still fails when the program runs.
+     */
+    public static class FoldBinary implements Rule {
+        @Override
+        public boolean apply(List<Machine.Instruction> code) {
+            if (code.size() < 3 || !is(code, 3, Opcode.PUSH) || !is(code, 2, Opcode.PUSH)) {
+                return false;
+            }
+            int a = operand(code, 3);
+            int b = operand(code, 2);
+            int result;
+            switch (code.get(code.size() - 1).opcode()) {
+                case ADD:
+                    result = a + b;
+                    break;
+                case SUB:
+                    result = a - b;
+                    break;
+                case MUL:
+                    result = a * b;
+                    break;
+                case DIV:
+                    if (b == 0) {
+                        return false;
+                    }
+                    result = a / b;
+                    break;
+                default:
+                    return false;
+            }
+            replace(code, 3, new Machine.PushConst(result));
+            return true;
+        }
+
+        @Override
+        public String name() {
+            return "fold-binary";
+        }
+    }
+
+    /**
+     * PUSH 0; ADD, PUSH 0; SUB, PUSH 1; MUL and PUSH 1; DIV leave the
+     * value under them unchanged, so they are dropped.
+     */
+    public static class Identity implements Rule {
+        @Override
+        public boolean apply(List<Machine.Instruction> code) {
+            if (!is(code, 2, Opcode.PUSH)) {
+                return false;
+            }
+            int c = operand(code, 2);
+            Opcode op = code.get(code.size() - 1).opcode();
+            boolean identity = c == 0 && (op == Opcode.ADD || op == Opcode.SUB) ||
+                    c == 1 && (op == Opcode.MUL || op == Opcode.DIV);
+            if (identity) {
+                replace(code, 2);
+            }
+            return identity;
+        }
+
+        @Override
+        public String name() {
+            return "identity";
+        }
+    }
+
+    /**
+     * NEG; NEG is dropped.
+     */
+    public static class DoubleNegation implements Rule {
+        @Override
+        public boolean apply(List<Machine.Instruction> code) {
+            if (is(code, 2, Opcode.NEG) && is(code, 1, Opcode.NEG)) {
+                replace(code, 2);
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        public String name() {
+            return "double-negation";
+        }
+    }
+
+    /**
+     * STORE x; LOAD x becomes DUP; STORE x, so the value is reused from
+     * the stack instead of being read back from its register.
+     */
+    public static class ForwardStore implements Rule {
+        @Override
+        public boolean apply(List<Machine.Instruction> code) {
+            if (is(code, 2, Opcode.STORE) && is(code, 1, Opcode.LOAD) &&
+                    operand(code, 2) == operand(code, 1)) {
+                Machine.Instruction store = code.get(code.size() - 2);
+                replace(code, 2, Machine.DUPLICATE, store);
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        public String name() {
+            return "forward-store";
+        }
+    }
+
+    /**
+     * Optimize an assembly language program, report what was done on
+     * standard error, and execute the result.
+     *
+     * @param args the name of the assembly language source file
+     */
+    public static void main(String[] args) {
+        if (args.length != 1) {
+            System.err.println("Usage: java dendron.machine.Peephole assembly-code-file");
+            System.exit(1);
+        }
+        List<Machine.Instruction> code = InstructionReader.assemble(args[0]);
+        if (code == null) {
+            System.exit(1);
+        }
+        Peephole optimizer = standard();
+        Code optimized = optimizer.optimize(code);
+        System.err.println(optimizer.report());
+        Machine.execute(optimized);
+    }
+}
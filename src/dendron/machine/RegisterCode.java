@@ -0,0 +1,311 @@
+package dendron.machine;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A program for the {@link RegisterMachine}: three-address instructions
+ * that name the registers they read and write, so intermediate values
+ * never go through a stack.
+ * <p>
+ * Registers are numbered in three groups: first one per variable (its
+ * slot in the symbol table), then one per distinct constant (loaded
+ * before the program starts), then the temporaries that hold
+ * intermediate results. Temporaries are handed out and given back in
+ * stack order as an expression is lowered, so a program needs no more
+ * of them than its deepest expression.
+ * <p>
+ * Each instruction is four ints: opcode, destination, first operand,
+ * second operand. Programs are built by lowering a parse tree with
+ * the methods below, which return the register holding each value.
+ */
+public class RegisterCode {
+
+    public static final int MOV = 0;
+    public static final int ADD = 1;
+    public static final int SUB = 2;
+    public static final int MUL = 3;
+    public static final int DIV = 4;
+    public static final int NEG = 5;
+    public static final int SQRT = 6;
+    public static final int PRINT = 7;
+    public static final int UNDEF = 8;
+
+    private static final String[] NAMES =
+            {"MOV", "ADD", "SUB", "MUL", "DIV", "NEG", "SQRT", "PRINT", "UNDEF"};
+
+    // Registers from these groups are not known until lowering is
+    // finished, so until then they are kept apart by tagging them.
+    private static final int CONSTANT = 1 << 29;
+    private static final int TEMPORARY = 1 << 30;
+    private static final int INDEX = CONSTANT - 1;
+
+    private final SymbolTable symbols = new SymbolTable();
+    private boolean[] assigned = new boolean[16];
+    private int[] constants = new int[16];
+    private int constantCount = 0;
+    private final Map<Integer, Integer> constantRegisters = new HashMap<>();
+    private int[] code = new int[64];
+    private int length = 0;
+    private int temporaries = 0;
+    private int maxTemporaries = 0;
+    private boolean finished = false;
+
+    /**
+     * @param name a variable
+     * @return the register holding its value. If the variable is certain
+     * not to have a value at this point in the program, an instruction is
+     * added to report the error when the program gets here.
+     */
+    public int variable(String name) {
+        int slot = symbols.slot(name);
+        ensureAssigned(slot);
+        if (!assigned[slot]) {
+            add(UNDEF, slot, 0, 0);
+        }
+        return slot;
+    }
+
+    /**
+     * @param value a constant
+     * @return the register holding it
+     */
+    public int constant(int value) {
+        Integer register = constantRegisters.get(value);
+        if (register == null) {
+            if (constantCount == constants.length) {
+                constants = Arrays.copyOf(constants, 2 * constants.length);
+            }
+            constants[constantCount] = value;
+            register = CONSTANT | constantCount++;
+            constantRegisters.put(value, register);
+        }
+        return register;
+    }
+
+    /**
+     * Add an arithmetic instruction.
+     *
+     * @param op    ADD, SUB, MUL or DIV
+     * @param left  the register holding the left operand
+     * @param right the register holding the right operand
+     * @return the (temporary) register holding the result
+     */
+    public int binary(int op, int left, int right) {
+        release(right);
+        release(left);
+        int result = temporary();
+        add(op, result, left, right);
+        return result;
+    }
+
+    /**
+     * Add a one-operand arithmetic instruction.
+     *
+     * @param op      NEG or SQRT
+     * @param operand the register holding the operand
+     * @return the (temporary) register holding the result
+     */
+    public int unary(int op, int operand) {
+        release(operand);
+        int result = temporary();
+        add(op, result, operand, 0);
+        return result;
+    }
+
+    /**
+     * Give a variable the value in a register. If the value was just
+     * computed into a temporary, the computation is made to put it
+     * straight into the variable instead.
+     *
+     * @param name   the variable
+     * @param source the register holding the value
+     */
+    public void assign(String name, int source) {
+        int slot = symbols.slot(name);
+        ensureAssigned(slot);
+        release(source);
+        if ((source & TEMPORARY) != 0 && length > 0 && code[length - 3] == source) {
+            code[length - 3] = slot;
+        }
+        else {
+            add(MOV, slot, source, 0);
+        }
+        assigned[slot] = true;
+    }
+
+    /**
+     * Add an instruction to print the value in a register.
+     *
+     * @param source the register
+     */
+    public void print(int source) {
+        release(source);
+        add(PRINT, 0, source, 0);
+    }
+
+    /**
+     * Give every register its final number. Called by the
+     * RegisterMachine before the program's first run; nothing can be
+     * added afterwards.
+     */
+    void finish() {
+        if (finished) {
+            return;
+        }
+        finished = true;
+        for (int pc = 0; pc < length; pc += 4) {
+            for (int i = 1; i < 4; i++) {
+                code[pc + i] = number(code[pc + i]);
+            }
+        }
+        code = Arrays.copyOf(code, length);
+        constants = Arrays.copyOf(constants, constantCount);
+    }
+
+    /**
+     * @param register a register as handed out while lowering
+     * @return its final number
+     */
+    private int number(int register) {
+        if ((register & TEMPORARY) != 0) {
+            return symbols.size() + constantCount + (register & INDEX);
+        }
+        if ((register & CONSTANT) != 0) {
+            return symbols.size() + (register & INDEX);
+        }
+        return register;
+    }
+
+    /**
+     * @return the next free temporary register
+     */
+    private int temporary() {
+        int result = TEMPORARY | temporaries++;
+        maxTemporaries = Math.max(maxTemporaries, temporaries);
+        return result;
+    }
+
+    /**
+     * Give back a temporary once its value has been used.
+     * Temporaries are used in stack order, so it is always the last one.
+     *
+     * @param register any register; only temporaries are released
+     */
+    private void release(int register) {
+        if ((register & TEMPORARY) != 0) {
+            temporaries--;
+        }
+    }
+
+    private void ensureAssigned(int slot) {
+        if (slot >= assigned.length) {
+            assigned = Arrays.copyOf(assigned, Math.max(slot + 1, 2 * assigned.length));
+        }
+    }
+
+    private void add(int op, int destination, int first, int second) {
+        if (finished) {
+            throw new IllegalStateException("RegisterCode already finished");
+        }
+        if (length + 4 > code.length) {
+            code = Arrays.copyOf(code, 2 * code.length);
+        }
+        code[length++] = op;
+        code[length++] = destination;
+        code[length++] = first;
+        code[length++] = second;
+    }
+
+    /**
+     * @return the instructions, four ints each
+     */
+    int[] code() {
+        return code;
+    }
+
+    /**
+     * @return the constants, in register order
+     */
+    int[] constants() {
+        return constants;
+    }
+
+    /**
+     * @return the program's variables
+     */
+    public SymbolTable symbols() {
+        return symbols;
+    }
+
+    /**
+     * @param slot a variable's slot
+     * @return true if the program gives the variable a value
+     */
+    boolean assigns(int slot) {
+        return slot < assigned.length && assigned[slot];
+    }
+
+    /**
+     * @return how many instructions the program holds
+     */
+    public int instructionCount() {
+        return length / 4;
+    }
+
+    /**
+     * @return how many registers the program uses
+     */
+    public int registerCount() {
+        return symbols.size() + constantCount + maxTemporaries;
+    }
+
+    /**
+     * @return a listing of the program, one instruction per line
+     */
+    @Override
+    public String toString() {
+        finish();
+        StringBuilder text = new StringBuilder();
+        for (int pc = 0; pc < length; pc += 4) {
+            int op = code[pc];
+            text.append(NAMES[op]);
+            switch (op) {
+                case PRINT:
+                    text.append(' ').append(register(code[pc + 2]));
+                    break;
+                case UNDEF:
+                    text.append(' ').append(register(code[pc + 1]));
+                    break;
+                case MOV:
+                case NEG:
+                case SQRT:
+                    text.append(' ').append(register(code[pc + 1]))
+                            .append(", ").append(register(code[pc + 2]));
+                    break;
+                default:
+                    text.append(' ').append(register(code[pc + 1]))
+                            .append(", ").append(register(code[pc + 2]))
+                            .append(", ").append(register(code[pc + 3]));
+            }
+            text.append('\n');
+        }
+        return text.toString();
+    }
+
+    /**
+     * @param register a final register number
+     * @return the variable name, constant, or temporary name it stands for
+     */
+    private String register(int register) {
+        if (register < symbols.size()) {
+            return symbols.name(register);
+        }
+        register -= symbols.size();
+        if (register < constantCount) {
+            return "#" + constants[register];
+        }
+        return "t" + (register - constantCount);
+    }
+}
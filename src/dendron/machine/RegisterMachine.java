@@ -0,0 +1,123 @@
+package dendron.machine;
+
+import dendron.Errors;
+import dendron.Output;
+import dendron.OutputSink;
+
+import java.util.Map;
+
+/**
+ * A register machine that runs {@link RegisterCode}. It is an
+ * alternative to the stack Machine: the same programs, lowered from the
+ * same parse trees, print the same values and end with the same
+ * variable values, but with fewer and larger instructions.
+ * <p>
+ * Like Machine, each instance has its own registers, and one instance
+ * must not be shared between threads.
+ */
+public class RegisterMachine {
+
+    private int[] registers = new int[0];
+    private SymbolTable symbols = new SymbolTable();
+    private boolean[] defined = new boolean[0];
+    private OutputSink output = null;
+
+    /**
+     * Run a program on a new RegisterMachine, reporting the contents
+     * of the symbol table afterwards.
+     *
+     * @param program the program
+     */
+    public static void execute(RegisterCode program) {
+        RegisterMachine machine = new RegisterMachine();
+        System.out.println("Executing register code...");
+        machine.run(program);
+        machine.output().flush();
+        System.out.println();
+        Errors.dump(machine.symbolTable());
+    }
+
+    /**
+     * Send this RegisterMachine's PRINT output somewhere other than
+     * the default sink.
+     *
+     * @param output where PRINT sends values; null for the default
+     * @see Output#sink()
+     */
+    public void setOutput(OutputSink output) {
+        this.output = output;
+    }
+
+    /**
+     * @return where PRINT sends values
+     */
+    public OutputSink output() {
+        return output != null ? output : Output.sink();
+    }
+
+    /**
+     * Run a program on this RegisterMachine without reporting anything.
+     *
+     * @param program the program
+     */
+    public void run(RegisterCode program) {
+        program.finish();
+        symbols = program.symbols();
+        int[] constants = program.constants();
+        int size = program.registerCount();
+        if (registers.length < size) {
+            registers = new int[size];
+        }
+        final int[] regs = registers;
+        System.arraycopy(constants, 0, regs, symbols.size(), constants.length);
+        final int[] code = program.code();
+        final OutputSink out = output();
+        for (int pc = 0; pc < code.length; pc += 4) {
+            switch (code[pc]) {
+                case RegisterCode.MOV:
+                    regs[code[pc + 1]] = regs[code[pc + 2]];
+                    break;
+                case RegisterCode.ADD:
+                    regs[code[pc + 1]] = regs[code[pc + 2]] + regs[code[pc + 3]];
+                    break;
+                case RegisterCode.SUB:
+                    regs[code[pc + 1]] = regs[code[pc + 2]] - regs[code[pc + 3]];
+                    break;
+                case RegisterCode.MUL:
+                    regs[code[pc + 1]] = regs[code[pc + 2]] * regs[code[pc + 3]];
+                    break;
+                case RegisterCode.DIV:
+                    regs[code[pc + 1]] = regs[code[pc + 2]] / regs[code[pc + 3]];
+                    break;
+                case RegisterCode.NEG:
+                    regs[code[pc + 1]] = -regs[code[pc + 2]];
+                    break;
+                case RegisterCode.SQRT:
+                    regs[code[pc + 1]] = (int) Math.sqrt(regs[code[pc + 2]]);
+                    break;
+                case RegisterCode.PRINT:
+                    out.print(Machine.MARKER, regs[code[pc + 2]]);
+                    break;
+                case RegisterCode.UNDEF:
+                    Errors.report(Errors.Type.UNINITIALIZED, symbols.name(code[pc + 1]));
+                    break;
+                default:
+                    throw new IllegalStateException("Illegal opcode " + code[pc]);
+            }
+        }
+        // A program that ran to the end has given a value to every
+        // variable it assigns.
+        defined = new boolean[symbols.size()];
+        for (int slot = 0; slot < defined.length; slot++) {
+            defined[slot] = program.assigns(slot);
+        }
+    }
+
+    /**
+     * @return the variables given a value by the last program run,
+     * and their values
+     */
+    public Map<String, Integer> symbolTable() {
+        return symbols.toMap(registers, defined);
+    }
+}
@@ -0,0 +1,406 @@
+package dendron.machine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.StringJoiner;
+
+/**
+ * Superinstructions: single Machine instructions that do the work of a
+ * common sequence of ordinary ones, so that the sequence costs one
+ * dispatch instead of two or three.
+ * <p>
+ * Which sequences are worth fusing depends on the programs being run,
+ * so the set is chosen from a {@link Profile} of real executions
+ * (see {@link #select}) and then applied to programs as a rewriting pass
+ * (see {@link #rewrite}). The result prints the same values and ends
+ * with the same symbol table as the original.
+ */
+public class Superinstructions {
+
+    /**
+     * The instruction sequences that can be fused.
+     */
+    public enum Pattern {
+        LOAD_LOAD_ADD(Opcode.LOAD, Opcode.LOAD, Opcode.ADD),
+        LOAD_LOAD_SUB(Opcode.LOAD, Opcode.LOAD, Opcode.SUB),
+        LOAD_LOAD_MUL(Opcode.LOAD, Opcode.LOAD, Opcode.MUL),
+        LOAD_LOAD_DIV(Opcode.LOAD, Opcode.LOAD, Opcode.DIV),
+        PUSH_ADD(Opcode.PUSH, Opcode.ADD),
+        PUSH_SUB(Opcode.PUSH, Opcode.SUB),
+        PUSH_MUL(Opcode.PUSH, Opcode.MUL),
+        PUSH_DIV(Opcode.PUSH, Opcode.DIV),
+        ADD_STORE(Opcode.ADD, Opcode.STORE),
+        SUB_STORE(Opcode.SUB, Opcode.STORE),
+        MUL_STORE(Opcode.MUL, Opcode.STORE),
+        DIV_STORE(Opcode.DIV, Opcode.STORE),
+        NEG_STORE(Opcode.NEG, Opcode.STORE),
+        SQRT_STORE(Opcode.SQRT, Opcode.STORE),
+        PUSH_STORE(Opcode.PUSH, Opcode.STORE),
+        LOAD_STORE(Opcode.LOAD, Opcode.STORE);
+
+        private final Opcode[] ops;
+
+        Pattern(Opcode... ops) {
+            this.ops = ops;
+        }
+
+        /**
+         * @return how many ordinary instructions the pattern covers
+         */
+        public int length() {
+            return ops.length;
+        }
+
+        /**
+         * @param code some instructions
+         * @param at   where to look in them
+         * @return true if the pattern's instructions start at that point
+         */
+        public boolean matches(List<Machine.Instruction> code, int at) {
+            if (at < 0 || at + ops.length > code.size()) {
+                return false;
+            }
+            for (int i = 0; i < ops.length; i++) {
+                if (code.get(at + i).opcode() != ops[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Make the superinstruction for a match of this pattern.
+         *
+         * @param code some linked instructions
+         * @param at   where the pattern matches them
+         * @return the superinstruction
+         */
+        private Fused fuse(List<Machine.Instruction> code, int at) {
+            List<Machine.Instruction> parts =
+                    new ArrayList<>(code.subList(at, at + ops.length));
+            Opcode first = ops[0];
+            Opcode last = ops[ops.length - 1];
+            if (ops.length == 3) {
+                return new LoadLoadOp(parts, last);
+            }
+            if (last != Opcode.STORE) {
+                return new PushOp(parts, last);
+            }
+            if (first == Opcode.PUSH) {
+                return new PushStore(parts);
+            }
+            if (first == Opcode.LOAD) {
+                return new LoadStore(parts);
+            }
+            return new OpStore(parts, first);
+        }
+    }
+
+    private final List<Pattern> patterns;
+    private int before = 0;
+    private int after = 0;
+
+    /**
+     * Create a rewriting pass.
+     *
+     * @param patterns the sequences to fuse
+     */
+    public Superinstructions(Collection<Pattern> patterns) {
+        this.patterns = new ArrayList<>(patterns);
+        // Prefer the longest fusion where there is a choice.
+        this.patterns.sort(Comparator.comparingInt(Pattern::length).reversed());
+    }
+
+    /**
+     * Choose the patterns that save the most dispatches in a profile.
+     *
+     * @param profile what was seen executing
+     * @param max     how many patterns to choose at most
+     * @return the chosen patterns; none that never occurred
+     */
+    public static Set<Pattern> select(Profile profile, int max) {
+        List<Pattern> ranked = new ArrayList<>(Arrays.asList(Pattern.values()));
+        ranked.sort(Comparator.comparingLong(profile::saving).reversed());
+        Set<Pattern> chosen = EnumSet.noneOf(Pattern.class);
+        for (Pattern p : ranked) {
+            if (chosen.size() == max || profile.saving(p) == 0) {
+                break;
+            }
+            chosen.add(p);
+        }
+        return chosen;
+    }
+
+    /**
+     * Replace the occurrences of this pass's patterns in a program with
+     * superinstructions, scanning from the start and fusing greedily.
+     *
+     * @param program a list of Machine instructions; it is linked
+     *                first if it is not already a {@link Code}
+     * @return the rewritten program, sharing the original's symbol table
+     */
+    public Code rewrite(List<Machine.Instruction> program) {
+        Code linked = Code.link(program);
+        Code result = new Code(linked.symbols());
+        int at = 0;
+        while (at < linked.size()) {
+            Pattern match = null;
+            for (Pattern p : patterns) {
+                if (p.matches(linked, at)) {
+                    match = p;
+                    break;
+                }
+            }
+            if (match == null) {
+                result.add(linked.get(at++));
+            }
+            else {
+                result.add(match.fuse(linked, at));
+                at += match.length();
+            }
+        }
+        before = linked.size();
+        after = result.size();
+        return result;
+    }
+
+    /**
+     * @return a one-line summary of the last rewrite
+     */
+    public String report() {
+        return String.format("Superinstructions: %d -> %d dispatches (%d saved) using %s",
+                before, after, before - after, patterns);
+    }
+
+    /**
+     * Counts of the fusable sequences seen while running programs.
+     */
+    public static class Profile {
+        private final long[] counts = new long[Pattern.values().length];
+        private long executed = 0;
+
+        /**
+         * Run a program, counting each fusable sequence as it is executed.
+         *
+         * @param machine where to run the program; it is reset first
+         * @param program a list of Machine instructions
+         */
+        public void run(Machine machine, List<Machine.Instruction> program) {
+            Code code = Code.link(program);
+            machine.start(code.symbols());
+            try {
+                for (int pc = 0; pc < code.size(); pc++) {
+                    machine.step(code.get(pc));
+                    executed++;
+                    for (Pattern p : Pattern.values()) {
+                        if (p.matches(code, pc - p.length() + 1)) {
+                            counts[p.ordinal()]++;
+                        }
+                    }
+                }
+            }
+            finally {
+                machine.finish();
+            }
+        }
+
+        /**
+         * @param pattern a fusable sequence
+         * @return how many times it was executed
+         */
+        public long count(Pattern pattern) {
+            return counts[pattern.ordinal()];
+        }
+
+        /**
+         * @param pattern a fusable sequence
+         * @return how many dispatches fusing it would have saved
+         */
+        public long saving(Pattern pattern) {
+            return count(pattern) * (pattern.length() - 1);
+        }
+
+        /**
+         * @return how many instructions were executed in all
+         */
+        public long executed() {
+            return executed;
+        }
+    }
+
+    /**
+     * Do a binary operation.
+     */
+    private static int apply(Opcode op, int a, int b) {
+        switch (op) {
+            case ADD:
+                return a + b;
+            case SUB:
+                return a - b;
+            case MUL:
+                return a * b;
+            case DIV:
+                return a / b;
+            default:
+                throw new IllegalArgumentException(op.name());
+        }
+    }
+
+    /**
+     * A superinstruction, standing for the instructions it was made from.
+     */
+    public static abstract class Fused implements Machine.Instruction {
+        private final List<Machine.Instruction> parts;
+
+        /**
+         * @param parts the linked instructions being fused
+         */
+        protected Fused(List<Machine.Instruction> parts) {
+            this.parts = parts;
+        }
+
+        /**
+         * @return the instructions this one does the work of, in order
+         */
+        public List<Machine.Instruction> parts() {
+            return parts;
+        }
+
+        /**
+         * @return Opcode.FUSED
+         */
+        @Override
+        public Opcode opcode() {
+            return Opcode.FUSED;
+        }
+
+        /**
+         * @return the parts, separated by semicolons, in braces
+         */
+        @Override
+        public String toString() {
+            StringJoiner text = new StringJoiner("; ", "{", "}");
+            for (Machine.Instruction part : parts) {
+                text.add(part.toString());
+            }
+            return text.toString();
+        }
+    }
+
+    /**
+     * LOAD a; LOAD b; op
+     */
+    private static class LoadLoadOp extends Fused {
+        private final int a;
+        private final int b;
+        private final Opcode op;
+
+        LoadLoadOp(List<Machine.Instruction> parts, Opcode op) {
+            super(parts);
+            this.a = parts.get(0).operand();
+            this.b = parts.get(1).operand();
+            this.op = op;
+        }
+
+        @Override
+        public void execute(Machine machine) {
+            int x = machine.load(a);
+            int y = machine.load(b);
+            machine.stack().push(apply(op, x, y));
+        }
+    }
+
+    /**
+     * PUSH c; op
+     */
+    private static class PushOp extends Fused {
+        private final int c;
+        private final Opcode op;
+
+        PushOp(List<Machine.Instruction> parts, Opcode op) {
+            super(parts);
+            this.c = parts.get(0).operand();
+            this.op = op;
+        }
+
+        @Override
+        public void execute(Machine machine) {
+            OperandStack stack = machine.stack();
+            stack.push(apply(op, stack.pop(), c));
+        }
+    }
+
+    /**
+     * op; STORE x
+     */
+    private static class OpStore extends Fused {
+        private final Opcode op;
+        private final int x;
+
+        OpStore(List<Machine.Instruction> parts, Opcode op) {
+            super(parts);
+            this.op = op;
+            this.x = parts.get(1).operand();
+        }
+
+        @Override
+        public void execute(Machine machine) {
+            OperandStack stack = machine.stack();
+            int value;
+            if (op == Opcode.NEG) {
+                value = -stack.pop();
+            }
+            else if (op == Opcode.SQRT) {
+                value = (int) Math.sqrt(stack.pop());
+            }
+            else {
+                int b = stack.pop();
+                value = apply(op, stack.pop(), b);
+            }
+            machine.store(x, value);
+        }
+    }
+
+    /**
+     * PUSH c; STORE x
+     */
+    private static class PushStore extends Fused {
+        private final int c;
+        private final int x;
+
+        PushStore(List<Machine.Instruction> parts) {
+            super(parts);
+            this.c = parts.get(0).operand();
+            this.x = parts.get(1).operand();
+        }
+
+        @Override
+        public void execute(Machine machine) {
+            machine.store(x, c);
+        }
+    }
+
+    /**
+     * LOAD a; STORE x
+     */
+    private static class LoadStore extends Fused {
+        private final int a;
+        private final int x;
+
+        LoadStore(List<Machine.Instruction> parts) {
+            super(parts);
+            this.a = parts.get(0).operand();
+            this.x = parts.get(1).operand();
+        }
+
+        @Override
+        public void execute(Machine machine) {
+            machine.store(x, machine.load(a));
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package dendron.machine;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The names of the variables of a Machine program. Each distinct
+ * identifier is given a dense integer slot, in order of first
+ * appearance, so that instructions can reach the variable's value
+ * by indexing an array instead of hashing its name.
+ * <p>
+ * The names are kept only so the table can be shown to a person.
+ */
+public class SymbolTable {
+
+    private final Map<String, Integer> slots = new HashMap<>();
+    private final List<String> names = new ArrayList<>();
+
+    /**
+     * Find the slot of a variable, giving it the next free slot
+     * if it has not been seen before.
+     *
+     * @param name the variable's identifier
+     * @return the variable's slot
+     */
+    public int slot(String name) {
+        Integer slot = slots.get(name);
+        if (slot == null) {
+            slot = names.size();
+            slots.put(name, slot);
+            names.add(name);
+        }
+        return slot;
+    }
+
+    /**
+     * Find the slot of a variable without adding it.
+     *
+     * @param name the variable's identifier
+     * @return the variable's slot, or -1 if it is not in the table
+     */
+    public int find(String name) {
+        Integer slot = slots.get(name);
+        return slot == null ? -1 : slot;
+    }
+
+    /**
+     * @param slot a slot handed out by this table
+     * @return the identifier of the variable in that slot
+     */
+    public String name(int slot) {
+        return names.get(slot);
+    }
+
+    /**
+     * @return how many slots have been handed out
+     */
+    public int size() {
+        return names.size();
+    }
+
+    /**
+     * Build a name-to-value map of the variables that have been given
+     * a value, e.g. for {@link dendron.Errors#dump(Map)}.
+     *
+     * @param values  the variables' values, indexed by slot
+     * @param defined which slots have been given a value
+     * @return a new map from identifier to value
+     */
+    public Map<String, Integer> toMap(int[] values, boolean[] defined) {
+        Map<String, Integer> result = new HashMap<>();
+        for (int slot = 0; slot < names.size() && slot < values.length; slot++) {
+            if (defined[slot]) {
+                result.put(names.get(slot), values[slot]);
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,152 @@
+package dendron.machine;
+
+import dendron.Errors;
+
+import java.io.PrintStream;
+
+/**
+ * A record of the last instructions a Machine executed, for finding
+ * out afterwards how a program went wrong. For each instruction it
+ * keeps the program counter, the opcode and operand, and the stack
+ * as the instruction found it (its depth and the value on top).
+ * <p>
+ * The record is kept in arrays of ints that are allocated once, and
+ * overwritten in a ring, so tracing allocates nothing per instruction.
+ * A buffer belongs to one Machine (see {@link Machine#setTrace}) and
+ * must not be shared; Machines running on different threads each
+ * have their own.
+ * <p>
+ * A buffer can be dumped at any time, and if asked it is dumped to
+ * standard error when an error is reported on the thread running its
+ * Machine.
+ */
+public class TraceBuffer {
+
+    // The buffer of the Machine running a traced program on each thread
+    private static final ThreadLocal<TraceBuffer> active = new ThreadLocal<>();
+
+    static {
+        Errors.addReportHook(() -> {
+            TraceBuffer trace = active.get();
+            if (trace != null && trace.dumpOnError) {
+                trace.dump(System.err);
+            }
+        });
+    }
+
+    private final int mask;
+    private final int[] pcs;
+    private final int[] opcodes;
+    private final int[] operands;
+    private final int[] depths;
+    private final int[] tops;
+    private long count = 0;
+    private volatile boolean dumpOnError = false;
+
+    /**
+     * @param capacity how many instructions to remember; rounded up
+     *                 to a power of two
+     */
+    public TraceBuffer(int capacity) {
+        if (capacity < 1 || capacity > 1 << 24) {
+            throw new IllegalArgumentException("Bad trace capacity " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        this.mask = size - 1;
+        this.pcs = new int[size];
+        this.opcodes = new int[size];
+        this.operands = new int[size];
+        this.depths = new int[size];
+        this.tops = new int[size];
+    }
+
+    /**
+     * Have the buffer dumped to standard error if an error is reported
+     * while its Machine is running a program.
+     *
+     * @param dump true to dump on error
+     * @return this buffer
+     */
+    public TraceBuffer dumpOnError(boolean dump) {
+        this.dumpOnError = dump;
+        return this;
+    }
+
+    /**
+     * Note an instruction about to be executed.
+     *
+     * @param pc      where it is in the program: its index in a list of
+     *                instructions, or its position in a Bytecode array
+     * @param opcode  its opcode's ordinal
+     * @param operand its operand, or 0 if it has none
+     * @param depth   how many values are on the stack
+     * @param top     the value on top of the stack, or 0 if it is empty
+     */
+    void record(int pc, int opcode, int operand, int depth, int top) {
+        int i = (int) count++ & mask;
+        pcs[i] = pc;
+        opcodes[i] = opcode;
+        operands[i] = operand;
+        depths[i] = depth;
+        tops[i] = top;
+    }
+
+    /**
+     * Make this the buffer that is dumped if an error is reported on
+     * this thread.
+     */
+    void activate() {
+        active.set(this);
+    }
+
+    /**
+     * Stop dumping this buffer if an error is reported on this thread.
+     */
+    void deactivate() {
+        // Not remove(), which would make set() allocate next time
+        active.set(null);
+    }
+
+    /**
+     * Forget everything recorded so far.
+     */
+    public void clear() {
+        count = 0;
+    }
+
+    /**
+     * @return how many instructions have been recorded since the buffer
+     * was made or cleared, including those no longer remembered
+     */
+    public long recorded() {
+        return count;
+    }
+
+    /**
+     * @return how many instructions the buffer remembers
+     */
+    public int capacity() {
+        return mask + 1;
+    }
+
+    /**
+     * Print the remembered instructions, oldest first.
+     *
+     * @param out where to print them
+     */
+    public void dump(PrintStream out) {
+        long first = Math.max(0, count - capacity());
+        out.printf("Trace of the last %d of %d instructions:%n", count - first, count);
+        out.printf("%8s  %-16s %6s  %s%n", "pc", "instruction", "depth", "top");
+        for (long n = first; n < count; n++) {
+            int i = (int) n & mask;
+            Opcode op = Opcode.of(opcodes[i]);
+            String instr = op.hasOperand() ? op.name() + " " + operands[i] : op.name();
+            out.printf("%8d  %-16s %6d  %s%n", pcs[i], instr, depths[i],
+                    depths[i] == 0 ? "-" : Integer.toString(tops[i]));
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package dendron.tree;
 
+import dendron.machine.RegisterCode;
+
 import java.util.Map;
 
 /**
@@ -18,4 +20,47 @@ public interface ActionNode extends DendronNode {
      * @param symTab the table where variable values are stored
      */
     void execute(Map<String, Integer> symTab);
+
+    /**
+     * Perform the action represented by this node, once its variables
+     * have been resolved.
+     *
+     * @param env the program's variables
+     * @see #resolve(Environment)
+     */
+    void execute(Environment env);
+
+    /**
+     * Give the variables in this action their slots.
+     *
+     * @param env the program's variables
+     */
+    void resolve(Environment env);
+
+    /**
+     * Generate three-address code that performs this action,
+     * for the register machine.
+     *
+     * @param code the program being built
+     */
+    void lower(RegisterCode code);
+
+    /**
+     * Compile this action into a closure that performs it.
+     *
+     * @param code the closure program being built
+     * @return the closure
+     */
+    Closures.Action closure(Closures code);
+
+    /**
+     * Compute what can be computed of this action before the
+     * program runs.
+     *
+     * @param code the pass being run
+     * @return an action with the same effect; this node if there is
+     * nothing to simplify
+     * @see Simplifier
+     */
+    ActionNode simplify(Simplifier code);
 }
@@ -5,16 +5,17 @@ package dendron.tree;
  * expression to a variable.
  */
 
-import dendron.machine.Machine;
+import dendron.machine.Code;
+import dendron.machine.RegisterCode;
 
-import java.util.ArrayList;
-import java.util.List;
 import java.util.Map;
 
 public class Assignment implements ActionNode {
 
     private String ident;
     private ExpressionNode rhs;
+    // Where the variable is in the Environment it was last resolved in
+    private int slot = -1;
 
     /**
      * @param ident String representing the variable
@@ -34,6 +35,24 @@ public class Assignment implements ActionNode {
         symTab.put(ident, i);
     }
 
+    /**
+     * @param env the program's variables
+     */
+    @Override
+    public void execute(Environment env) {
+        env.set(slot, rhs.evaluate(env));
+    }
+
+    /**
+     * @param env the program's variables, which the variable and those
+     *            of the RHS expression are given slots in
+     */
+    @Override
+    public void resolve(Environment env) {
+        rhs.resolve(env);
+        slot = env.slot(ident);
+    }
+
     /**
      * Assignment on standard output as a variable followed
      * by an assignment arrow (":=") followed by the infix form of the RHS expression.
@@ -45,15 +64,58 @@ public class Assignment implements ActionNode {
     }
 
     /**
-     * @return the instruction and add it to the arraylist.
+     * @param code the program being built; the RHS expression's
+     *             instructions are added, then the store
+     */
+    @Override
+    public void emit(Code code) {
+        rhs.emit(code);
+        code.add(code.store(ident));
+    }
+
+    /**
+     * @param code the register program being built; the value of the
+     *             RHS expression is put in the variable's register
+     */
+    @Override
+    public void lower(RegisterCode code) {
+        code.assign(ident, rhs.lower(code));
+    }
+
+    /**
+     * @param code the closure program being built
+     * @return a closure storing the value of the RHS expression in
+     * the variable's slot
+     */
+    @Override
+    public Closures.Action closure(Closures code) {
+        Closures.Expression value = rhs.closure(code);
+        int slot = code.assign(ident);
+        return frame -> frame[slot] = value.evaluate(frame);
+    }
+
+    /**
+     * @param code the pass being run
+     * @return the assignment with its RHS expression simplified
      */
     @Override
-    public List<Machine.Instruction> emit() {
-        List<Machine.Instruction> instruction = new ArrayList<>();
+    public ActionNode simplify(Simplifier code) {
+        ExpressionNode value = rhs.simplify(code);
+        code.assign(ident);
+        return value == rhs ? this : new Assignment(ident, value);
+    }
+
+    /**
+     * @return the variable assigned
+     */
+    String ident() {
+        return ident;
+    }
 
-        Machine.Instruction expr = new Machine.Store(ident);
-        instruction.addAll(rhs.emit());
-        instruction.add(expr);
-        return instruction;
+    /**
+     * @return the expression whose value is assigned
+     */
+    ExpressionNode rhs() {
+        return rhs;
     }
 }
@@ -4,7 +4,9 @@ package dendron.tree;
  */
 
 import dendron.Errors;
+import dendron.machine.Code;
 import dendron.machine.Machine;
+import dendron.machine.RegisterCode;
 
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -18,9 +20,11 @@ public class BinaryOperation implements ExpressionNode {
     public static final String SUB = "-";
     public static final List<String> OPERATIONS = new ArrayList<>(Arrays.asList(ADD, DIV, MUL, SUB));
 
-    private String operator;
-    private ExpressionNode leftChild;
-    private ExpressionNode rightChild;
+    private final String operator;
+    private final ExpressionNode leftChild;
+    private final ExpressionNode rightChild;
+    // The number of nodes on the longest path down to a leaf
+    private final int height;
 
     /**
      * @param Operator   The string that will be passed into this
@@ -32,34 +36,142 @@ public class BinaryOperation implements ExpressionNode {
         operator = Operator;
         this.leftChild = leftChild;
         this.rightChild = rightChild;
+        this.height = 1 + Math.max(DeepExpressions.height(leftChild),
+                DeepExpressions.height(rightChild));
+    }
+
+    /**
+     * Make the node for an operation. The node is of a subclass that
+     * computes that one operation, on operands of that shape (such as
+     * a variable and a constant), with nothing to decide as it runs,
+     * unless it is too deep to evaluate by recursion.
+     *
+     * @param operator   one of {@link #OPERATIONS}
+     * @param leftChild  the left operand
+     * @param rightChild the right operand
+     * @return the node
+     */
+    public static BinaryOperation of(String operator, ExpressionNode leftChild, ExpressionNode rightChild) {
+        if (Math.max(DeepExpressions.height(leftChild), DeepExpressions.height(rightChild)) >=
+                DeepExpressions.SHALLOW) {
+            return new BinaryOperation(operator, leftChild, rightChild);
+        }
+        Constant left = leftChild instanceof Constant ? (Constant) leftChild : null;
+        Constant right = rightChild instanceof Constant ? (Constant) rightChild : null;
+        if (operator.equals(ADD)) {
+            if (right != null) {
+                return new AddConstant(leftChild, rightChild, leftChild, right.value());
+            } else if (left != null) {
+                return new AddConstant(leftChild, rightChild, rightChild, left.value());
+            }
+            return new Add(leftChild, rightChild);
+        } else if (operator.equals(SUB)) {
+            if (right != null) {
+                return new SubtractConstant(leftChild, rightChild, right.value());
+            } else if (left != null) {
+                return new SubtractFromConstant(leftChild, rightChild, left.value());
+            }
+            return new Subtract(leftChild, rightChild);
+        } else if (operator.equals(MUL)) {
+            if (right != null) {
+                return new MultiplyConstant(leftChild, rightChild, leftChild, right.value());
+            } else if (left != null) {
+                return new MultiplyConstant(leftChild, rightChild, rightChild, left.value());
+            }
+            return new Multiply(leftChild, rightChild);
+        } else if (operator.equals(DIV)) {
+            if (right != null && right.value() != 0) {
+                return new DivideByConstant(leftChild, rightChild, right.value());
+            }
+            return new Divide(leftChild, rightChild);
+        }
+        return new BinaryOperation(operator, leftChild, rightChild);
     }
 
     /**
      * @param symTab symbol table, if needed, to fetch variable values
      * @return the left child and right child evaluate, operation will depend on the operator passed in.
+     * For division the divisor is evaluated, and checked, first.
      */
     @Override
     public int evaluate(Map<String, Integer> symTab) {
-        if (operator.equals(ADD)) {
-            return leftChild.evaluate(symTab) + rightChild.evaluate(symTab);
-        } else if (operator.equals(DIV)) {
-            if (rightChild.evaluate(symTab) == 0) {
+        if (height > DeepExpressions.SHALLOW) {
+            return DeepExpressions.evaluate(this, symTab);
+        }
+        if (operator.equals(DIV)) {
+            int divisor = rightChild.evaluate(symTab);
+            if (divisor == 0) {
                 Errors.report(Errors.Type.DIVIDE_BY_ZERO, null);
             }
-            return leftChild.evaluate(symTab) / rightChild.evaluate(symTab);
+            return leftChild.evaluate(symTab) / divisor;
+        }
+        int left = leftChild.evaluate(symTab);
+        return apply(left, rightChild.evaluate(symTab));
+    }
+
+    /**
+     * @param env the program's variables
+     * @return the value of the operation. For division the divisor is
+     * evaluated, and checked, first.
+     */
+    @Override
+    public int evaluate(Environment env) {
+        if (height > DeepExpressions.SHALLOW) {
+            return DeepExpressions.evaluate(this, env);
+        }
+        if (operator.equals(DIV)) {
+            int divisor = rightChild.evaluate(env);
+            if (divisor == 0) {
+                Errors.report(Errors.Type.DIVIDE_BY_ZERO, null);
+            }
+            return leftChild.evaluate(env) / divisor;
+        }
+        int left = leftChild.evaluate(env);
+        return apply(left, rightChild.evaluate(env));
+    }
+
+    /**
+     * @param left  the value of the left operand
+     * @param right the value of the right operand, not 0 if this is
+     *              a division
+     * @return the value of the operation
+     */
+    int apply(int left, int right) {
+        if (operator.equals(ADD)) {
+            return left + right;
         } else if (operator.equals(MUL)) {
-            return leftChild.evaluate(symTab) * rightChild.evaluate(symTab);
+            return left * right;
         } else if (operator.equals(SUB)) {
-            return leftChild.evaluate(symTab) - rightChild.evaluate((symTab));
+            return left - right;
+        } else if (operator.equals(DIV)) {
+            return left / right;
         }
         return 0;
     }
 
+    /**
+     * @param env the program's variables, which the operands' variables
+     *            are given slots in
+     */
+    @Override
+    public void resolve(Environment env) {
+        if (height > DeepExpressions.SHALLOW) {
+            DeepExpressions.resolve(this, env);
+            return;
+        }
+        leftChild.resolve(env);
+        rightChild.resolve(env);
+    }
+
     /**
      * The printout of the left child, parent and right child in the correct order.
      */
     @Override
     public void infixDisplay() {
+        if (height > DeepExpressions.SHALLOW) {
+            DeepExpressions.infixDisplay(this);
+            return;
+        }
         System.out.print(" ( ");
         this.leftChild.infixDisplay();
         System.out.print(" " + this.operator + " ");
@@ -69,32 +181,277 @@ public class BinaryOperation implements ExpressionNode {
     }
 
     /**
-     * @return the leftchild/rightchild emit and adds to the machine instruction.
+     * @param code the program being built; the operands' instructions
+     *             are added, then the operation's
      */
     @Override
-    public List<Machine.Instruction> emit() {
-        List instruction = new ArrayList();
-        instruction.addAll(leftChild.emit());
-        instruction.addAll(rightChild.emit());
+    public void emit(Code code) {
+        if (height > DeepExpressions.SHALLOW) {
+            DeepExpressions.emit(this, code);
+            return;
+        }
+        leftChild.emit(code);
+        rightChild.emit(code);
+        code.add(instruction());
+    }
 
-        Machine.Instruction add = new Machine.Add();
-        Machine.Instruction subtract = new Machine.Subtract();
-        Machine.Instruction multiply = new Machine.Multiply();
-        Machine.Instruction divide = new Machine.Divide();
+    /**
+     * @return the shared machine instruction for the operation
+     */
+    Machine.Instruction instruction() {
+        switch (operator) {
+            case ADD:
+                return Machine.ADD;
+            case SUB:
+                return Machine.SUBTRACT;
+            case MUL:
+                return Machine.MULTIPLY;
+            default:
+                return Machine.DIVIDE;
+        }
+    }
 
+    /**
+     * @param code the register program being built
+     * @return the temporary register holding the result of the operation
+     */
+    @Override
+    public int lower(RegisterCode code) {
+        int left = leftChild.lower(code);
+        int right = rightChild.lower(code);
+        int op;
         if (operator.equals(ADD)) {
-            instruction.add(add);
-            return instruction;
+            op = RegisterCode.ADD;
         } else if (operator.equals(SUB)) {
-            instruction.add(subtract);
-            return instruction;
+            op = RegisterCode.SUB;
         } else if (operator.equals(MUL)) {
-            instruction.add(multiply);
-            return instruction;
-        } else if (operator.equals(DIV)) {
-            instruction.add(divide);
-            return instruction;
+            op = RegisterCode.MUL;
+        } else {
+            op = RegisterCode.DIV;
+        }
+        return code.binary(op, left, right);
+    }
+
+    /**
+     * @param code the closure program being built
+     * @return a closure computing the operation. As in evaluate, the
+     * divisor is checked before the dividend is evaluated.
+     */
+    @Override
+    public Closures.Expression closure(Closures code) {
+        Closures.Expression left = leftChild.closure(code);
+        Closures.Expression right = rightChild.closure(code);
+        if (operator.equals(ADD)) {
+            return frame -> left.evaluate(frame) + right.evaluate(frame);
+        } else if (operator.equals(SUB)) {
+            return frame -> left.evaluate(frame) - right.evaluate(frame);
+        } else if (operator.equals(MUL)) {
+            return frame -> left.evaluate(frame) * right.evaluate(frame);
+        }
+        return frame -> {
+            int divisor = right.evaluate(frame);
+            if (divisor == 0) {
+                Errors.report(Errors.Type.DIVIDE_BY_ZERO, null);
+            }
+            return left.evaluate(frame) / divisor;
+        };
+    }
+
+    /**
+     * @param code the pass being run
+     * @return the operation with its operands simplified, or something
+     * simpler still
+     */
+    @Override
+    public ExpressionNode simplify(Simplifier code) {
+        ExpressionNode left = leftChild.simplify(code);
+        ExpressionNode right = rightChild.simplify(code);
+        ExpressionNode simpler = code.binary(operator, left, right);
+        if (simpler != null) {
+            return simpler;
+        }
+        return left == leftChild && right == rightChild ?
+                this : of(operator, left, right);
+    }
+
+    /**
+     * @return the number of nodes on the longest path from this one
+     * down to a leaf
+     */
+    int height() {
+        return height;
+    }
+
+    /**
+     * @return the operator
+     */
+    String operator() {
+        return operator;
+    }
+
+    /**
+     * @return the left operand
+     */
+    ExpressionNode left() {
+        return leftChild;
+    }
+
+    /**
+     * @return the right operand
+     */
+    ExpressionNode right() {
+        return rightChild;
+    }
+
+    /**
+     * The sum of two operands.
+     */
+    static final class Add extends BinaryOperation {
+        Add(ExpressionNode leftChild, ExpressionNode rightChild) {
+            super(ADD, leftChild, rightChild);
+        }
+
+        @Override
+        public int evaluate(Environment env) {
+            return super.leftChild.evaluate(env) + super.rightChild.evaluate(env);
+        }
+    }
+
+    /**
+     * The sum of an operand and a constant, on either side.
+     */
+    static final class AddConstant extends BinaryOperation {
+        private final ExpressionNode operand;
+        private final int value;
+
+        AddConstant(ExpressionNode leftChild, ExpressionNode rightChild,
+                    ExpressionNode operand, int value) {
+            super(ADD, leftChild, rightChild);
+            this.operand = operand;
+            this.value = value;
+        }
+
+        @Override
+        public int evaluate(Environment env) {
+            return operand.evaluate(env) + value;
+        }
+    }
+
+    /**
+     * The difference of two operands.
+     */
+    static final class Subtract extends BinaryOperation {
+        Subtract(ExpressionNode leftChild, ExpressionNode rightChild) {
+            super(SUB, leftChild, rightChild);
+        }
+
+        @Override
+        public int evaluate(Environment env) {
+            return super.leftChild.evaluate(env) - super.rightChild.evaluate(env);
+        }
+    }
+
+    /**
+     * An operand minus a constant.
+     */
+    static final class SubtractConstant extends BinaryOperation {
+        private final int value;
+
+        SubtractConstant(ExpressionNode leftChild, ExpressionNode rightChild, int value) {
+            super(SUB, leftChild, rightChild);
+            this.value = value;
+        }
+
+        @Override
+        public int evaluate(Environment env) {
+            return super.leftChild.evaluate(env) - value;
+        }
+    }
+
+    /**
+     * A constant minus an operand.
+     */
+    static final class SubtractFromConstant extends BinaryOperation {
+        private final int value;
+
+        SubtractFromConstant(ExpressionNode leftChild, ExpressionNode rightChild, int value) {
+            super(SUB, leftChild, rightChild);
+            this.value = value;
+        }
+
+        @Override
+        public int evaluate(Environment env) {
+            return value - super.rightChild.evaluate(env);
+        }
+    }
+
+    /**
+     * The product of two operands.
+     */
+    static final class Multiply extends BinaryOperation {
+        Multiply(ExpressionNode leftChild, ExpressionNode rightChild) {
+            super(MUL, leftChild, rightChild);
+        }
+
+        @Override
+        public int evaluate(Environment env) {
+            return super.leftChild.evaluate(env) * super.rightChild.evaluate(env);
+        }
+    }
+
+    /**
+     * The product of an operand and a constant, on either side.
+     */
+    static final class MultiplyConstant extends BinaryOperation {
+        private final ExpressionNode operand;
+        private final int value;
+
+        MultiplyConstant(ExpressionNode leftChild, ExpressionNode rightChild,
+                         ExpressionNode operand, int value) {
+            super(MUL, leftChild, rightChild);
+            this.operand = operand;
+            this.value = value;
+        }
+
+        @Override
+        public int evaluate(Environment env) {
+            return operand.evaluate(env) * value;
+        }
+    }
+
+    /**
+     * The quotient of two operands. The divisor is evaluated, and
+     * checked, first.
+     */
+    static final class Divide extends BinaryOperation {
+        Divide(ExpressionNode leftChild, ExpressionNode rightChild) {
+            super(DIV, leftChild, rightChild);
+        }
+
+        @Override
+        public int evaluate(Environment env) {
+            int divisor = super.rightChild.evaluate(env);
+            if (divisor == 0) {
+                Errors.report(Errors.Type.DIVIDE_BY_ZERO, null);
+            }
+            return super.leftChild.evaluate(env) / divisor;
+        }
+    }
+
+    /**
+     * An operand divided by a constant other than 0.
+     */
+    static final class DivideByConstant extends BinaryOperation {
+        private final int value;
+
+        DivideByConstant(ExpressionNode leftChild, ExpressionNode rightChild, int value) {
+            super(DIV, leftChild, rightChild);
+            this.value = value;
+        }
+
+        @Override
+        public int evaluate(Environment env) {
+            return super.leftChild.evaluate(env) / value;
         }
-        return null;
     }
 }
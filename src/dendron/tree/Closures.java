@@ -0,0 +1,124 @@
+package dendron.tree;
+
+import dendron.Errors;
+import dendron.machine.SymbolTable;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * A parse tree compiled into a tree of closures. Each node is turned
+ * into a small function object once, with its operator already chosen
+ * and its variables already bound to slots in an int array (the frame),
+ * so running the program does no string comparisons or map lookups.
+ * <p>
+ * Programs are built by {@link ParseTree#compileClosures()}, which
+ * hands an instance of this class to each node in turn.
+ */
+public class Closures {
+
+    /**
+     * A compiled ExpressionNode.
+     */
+    @FunctionalInterface
+    public interface Expression {
+        /**
+         * @param frame the program's variables, by slot
+         * @return the value of the expression
+         */
+        int evaluate(int[] frame);
+    }
+
+    /**
+     * A compiled ActionNode.
+     */
+    @FunctionalInterface
+    public interface Action {
+        /**
+         * @param frame the program's variables, by slot
+         */
+        void execute(int[] frame);
+    }
+
+    private final SymbolTable symbols = new SymbolTable();
+    private boolean[] assigned = new boolean[16];
+    private Action program = frame -> { };
+
+    /**
+     * @param name a variable
+     * @return a closure that reads the variable. If the variable is
+     * certain not to have a value at this point in the program, the
+     * closure reports the error instead.
+     */
+    public Expression variable(String name) {
+        int slot = symbols.slot(name);
+        ensureAssigned(slot);
+        if (!assigned[slot]) {
+            return frame -> {
+                Errors.report(Errors.Type.UNINITIALIZED, name);
+                return 0;
+            };
+        }
+        return frame -> frame[slot];
+    }
+
+    /**
+     * Note that a variable is given a value. Called after the closure
+     * for the value has been made, since that closure cannot see the
+     * new value.
+     *
+     * @param name a variable
+     * @return the variable's slot in the frame
+     */
+    public int assign(String name) {
+        int slot = symbols.slot(name);
+        ensureAssigned(slot);
+        assigned[slot] = true;
+        return slot;
+    }
+
+    private void ensureAssigned(int slot) {
+        if (slot >= assigned.length) {
+            assigned = Arrays.copyOf(assigned, Math.max(slot + 1, 2 * assigned.length));
+        }
+    }
+
+    /**
+     * @param program the compiled program as a whole
+     */
+    void setProgram(Action program) {
+        this.program = program;
+    }
+
+    /**
+     * @return a frame big enough for the program's variables
+     */
+    public int[] newFrame() {
+        return new int[symbols.size()];
+    }
+
+    /**
+     * Run the program.
+     *
+     * @param frame a frame made by {@link #newFrame()}; the variables'
+     *              final values are left in it
+     */
+    public void run(int[] frame) {
+        program.execute(frame);
+    }
+
+    /**
+     * @param frame a frame the program has been run with
+     * @return the variables the program gives a value, and their values
+     */
+    public Map<String, Integer> symbolTable(int[] frame) {
+        return symbols.toMap(frame, assigned);
+    }
+
+    /**
+     * @return the program's variables
+     */
+    public SymbolTable symbols() {
+        return symbols;
+    }
+}
@@ -0,0 +1,254 @@
+package dendron.tree;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A pass that has a program compute each repeated subexpression once.
+ * An operation that occurs more than once, in one statement or in
+ * several with none of its variables assigned in between, is given a
+ * temporary variable, assigned just before the first statement that
+ * uses it, and each occurrence is replaced by the temporary. Every way
+ * of running the program then evaluates the operation once, and the
+ * compilers keep its value in the temporary's slot or register.
+ * <p>
+ * Temporaries are named with a '$', which no Dendron variable can
+ * start with, and {@link dendron.Errors#dump} leaves them out.
+ * Only operations that cannot fail where they are first used are
+ * moved ahead of their statement (see {@link Simplifier}), so the
+ * program prints the same values and reports the same errors.
+ *
+ * @see ParseTree#eliminateCommonSubexpressions()
+ */
+class CommonSubexpressions {
+
+    /**
+     * What temporaries are named with
+     */
+    static final String PREFIX = "$";
+
+    /**
+     * One value of an operation: from where it is first used until one
+     * of its variables is assigned.
+     */
+    private static final class Value {
+        private final ExpressionNode node;
+        private final boolean safe;
+        private int uses = 1;
+        private Variable temporary = null;
+        private ExpressionNode definition = null;
+
+        Value(ExpressionNode node, boolean safe) {
+            this.node = node;
+            this.safe = safe;
+        }
+    }
+
+    private final NodeFactory nodes = new NodeFactory();
+    private int temporaries;
+
+    // While walking the program: the values available at this point,
+    // which of them use each variable, and which variables have been
+    // assigned
+    private final Map<ExpressionNode, Value> available = new IdentityHashMap<>();
+    private final Map<String, List<Value>> users = new HashMap<>();
+    private final Set<String> assigned = new HashSet<>();
+
+    // Every value, in the order the walks meet them
+    private final List<Value> values = new ArrayList<>();
+    private Iterator<Value> replay = null;
+
+    /**
+     * @param temporaries how many temporaries the program already has
+     */
+    CommonSubexpressions(int temporaries) {
+        this.temporaries = temporaries;
+    }
+
+    /**
+     * @return how many temporaries the program has now
+     */
+    int temporaries() {
+        return temporaries;
+    }
+
+    /**
+     * Rewrite a program.
+     *
+     * @param program the program, which is changed in place
+     * @return how many evaluations of operations were removed
+     */
+    int rewrite(Program program) {
+        List<ActionNode> actions = program.actionNodes;
+        List<ExpressionNode> expressions = new ArrayList<>();
+        for (ActionNode action : actions) {
+            expressions.add(nodes.intern(expression(action)));
+        }
+
+        // First count the uses of each value...
+        for (int i = 0; i < actions.size(); i++) {
+            count(expressions.get(i));
+            finish(actions.get(i));
+        }
+        int removed = 0;
+        for (Value value : values) {
+            if (value.uses > 1 && value.safe) {
+                value.temporary = nodes.variable(PREFIX + ++temporaries);
+                removed += value.uses - 1;
+            }
+        }
+        if (removed == 0) {
+            return 0;
+        }
+
+        // ...then walk the program again the same way, replacing them.
+        available.clear();
+        users.clear();
+        assigned.clear();
+        replay = values.iterator();
+        List<ActionNode> rewritten = new ArrayList<>();
+        for (int i = 0; i < actions.size(); i++) {
+            ActionNode action = actions.get(i);
+            List<Value> first = new ArrayList<>();
+            ExpressionNode e = replace(expressions.get(i), first);
+            for (Value value : first) {
+                rewritten.add(new Assignment(value.temporary.name(), value.definition));
+            }
+            rewritten.add(action instanceof Print ?
+                    new Print(e) : new Assignment(((Assignment) action).ident(), e));
+            finish(action);
+        }
+        actions.clear();
+        actions.addAll(rewritten);
+        return removed;
+    }
+
+    /**
+     * @param action an Assignment or a Print
+     * @return its expression
+     */
+    private static ExpressionNode expression(ActionNode action) {
+        return action instanceof Print ?
+                ((Print) action).printee() : ((Assignment) action).rhs();
+    }
+
+    /**
+     * Count the uses of the values an expression has. An operation whose
+     * value is already available is not walked into, since its operands
+     * will not be evaluated again, unless it may fail and so cannot be
+     * given a temporary.
+     *
+     * @param e the expression
+     */
+    private void count(ExpressionNode e) {
+        if (e instanceof Constant || e instanceof Variable) {
+            return;
+        }
+        Value value = available.get(e);
+        if (value == null) {
+            value = new Value(e, !Simplifier.canFail(e, assigned));
+            values.add(value);
+            use(value);
+        } else if (value.safe) {
+            value.uses++;
+            return;
+        }
+        if (e instanceof UnaryOperation) {
+            count(((UnaryOperation) e).operand());
+        } else {
+            count(((BinaryOperation) e).left());
+            count(((BinaryOperation) e).right());
+        }
+    }
+
+    /**
+     * Replace the values in an expression that have temporaries, walking
+     * it the same way as {@link #count(ExpressionNode)}.
+     *
+     * @param e     the expression
+     * @param first where to put the values that get a temporary and are
+     *              first used here, operands before the operations using them
+     * @return the expression, using the temporaries
+     */
+    private ExpressionNode replace(ExpressionNode e, List<Value> first) {
+        if (e instanceof Constant || e instanceof Variable) {
+            return e;
+        }
+        Value value = available.get(e);
+        if (value == null) {
+            value = replay.next();
+            use(value);
+        } else if (value.temporary != null) {
+            return value.temporary;
+        }
+        ExpressionNode replaced;
+        if (e instanceof UnaryOperation) {
+            UnaryOperation u = (UnaryOperation) e;
+            replaced = nodes.unary(u.operator(), replace(u.operand(), first));
+        } else {
+            BinaryOperation b = (BinaryOperation) e;
+            ExpressionNode left = replace(b.left(), first);
+            replaced = nodes.binary(b.operator(), left, replace(b.right(), first));
+        }
+        if (value.temporary == null) {
+            return replaced;
+        }
+        value.definition = replaced;
+        first.add(value);
+        return value.temporary;
+    }
+
+    /**
+     * Make a value available until one of its variables is assigned.
+     *
+     * @param value the value
+     */
+    private void use(Value value) {
+        available.put(value.node, value);
+        for (String name : variables(value.node, new HashSet<>())) {
+            users.computeIfAbsent(name, k -> new ArrayList<>()).add(value);
+        }
+    }
+
+    /**
+     * Note what a statement assigns, so that values using it are no
+     * longer available.
+     *
+     * @param action the statement
+     */
+    private void finish(ActionNode action) {
+        if (action instanceof Assignment) {
+            String name = ((Assignment) action).ident();
+            assigned.add(name);
+            List<Value> stale = users.remove(name);
+            if (stale != null) {
+                for (Value value : stale) {
+                    available.remove(value.node, value);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param e     an expression
+     * @param names where to put the names of its variables
+     * @return the names
+     */
+    private static Set<String> variables(ExpressionNode e, Set<String> names) {
+        if (e instanceof Variable) {
+            names.add(((Variable) e).name());
+        } else if (e instanceof UnaryOperation) {
+            variables(((UnaryOperation) e).operand(), names);
+        } else if (e instanceof BinaryOperation) {
+            variables(((BinaryOperation) e).left(), names);
+            variables(((BinaryOperation) e).right(), names);
+        }
+        return names;
+    }
+}
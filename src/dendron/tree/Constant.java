@@ -1,9 +1,9 @@
 package dendron.tree;
 
+import dendron.machine.Code;
 import dendron.machine.Machine;
+import dendron.machine.RegisterCode;
 
-import java.util.ArrayList;
-import java.util.List;
 import java.util.Map;
 
 public class Constant implements ExpressionNode {
@@ -28,6 +28,22 @@ public class Constant implements ExpressionNode {
         return value;
     }
 
+    /**
+     * @param env the program's variables
+     * @return the value of the constant
+     */
+    @Override
+    public int evaluate(Environment env) {
+        return value;
+    }
+
+    /**
+     * @param env the program's variables; a constant has none
+     */
+    @Override
+    public void resolve(Environment env) {
+    }
+
     /**
      * Printout the value of the constnat.
      */
@@ -37,16 +53,46 @@ public class Constant implements ExpressionNode {
     }
 
     /**
-     * @return add instruction of the constant to the list of machine instruction.
+     * @param code the program being built, to which a push of the
+     *             constant is added
+     */
+    @Override
+    public void emit(Code code) {
+        code.add(new Machine.PushConst(value));
+    }
+
+    /**
+     * @param code the register program being built
+     * @return the register holding the constant
      */
     @Override
-    public List<Machine.Instruction> emit() {
-        List instruction = new ArrayList();
+    public int lower(RegisterCode code) {
+        return code.constant(value);
+    }
 
-        Machine.Instruction constant = new Machine.PushConst(value);
+    /**
+     * @param code the closure program being built
+     * @return a closure returning the constant
+     */
+    @Override
+    public Closures.Expression closure(Closures code) {
+        int v = value;
+        return frame -> v;
+    }
 
-        instruction.add(constant);
-        return instruction;
+    /**
+     * @param code the pass being run
+     * @return this constant, which is as simple as it gets
+     */
+    @Override
+    public ExpressionNode simplify(Simplifier code) {
+        return this;
+    }
 
+    /**
+     * @return the value of the constant
+     */
+    int value() {
+        return value;
     }
 }
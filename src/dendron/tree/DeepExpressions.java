@@ -0,0 +1,283 @@
+package dendron.tree;
+
+import dendron.Errors;
+import dendron.machine.Code;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.function.ToIntFunction;
+
+/**
+ * Walks of expressions nested too deeply to recurse through. Every
+ * operation node knows its height; one no higher than {@link #SHALLOW}
+ * evaluates, resolves, emits and displays itself by calling its
+ * operands in the ordinary way, which takes at most that many Java
+ * stack frames. A higher one hands itself to a method here, which
+ * keeps the path from it down to the operand being worked on in
+ * arrays on the heap, and lets each shallow subexpression it meets
+ * recurse as usual. However deep an expression is, then, working on
+ * it takes the same native stack as working on a shallow one.
+ * <p>
+ * {@link BinaryOperation#of} and {@link UnaryOperation#of} make deep
+ * nodes of the general classes, which check their height; only
+ * shallow nodes are of the specialized subclasses, which do not.
+ */
+class DeepExpressions {
+
+    /**
+     * The highest expression that is walked by recursion
+     */
+    static final int SHALLOW = 64;
+
+    /**
+     * What a walk does at each node, in the order the nodes are written
+     * in infix form.
+     */
+    private interface Visitor {
+        /**
+         * @param e a subexpression no higher than {@link #SHALLOW},
+         *          which is not walked into
+         */
+        void shallow(ExpressionNode e);
+
+        /**
+         * @param e an operation, before its operands
+         */
+        default void enter(ExpressionNode e) {
+        }
+
+        /**
+         * @param b a binary operation, between its operands
+         */
+        default void between(BinaryOperation b) {
+        }
+
+        /**
+         * @param e an operation, after its operands
+         */
+        default void exit(ExpressionNode e) {
+        }
+    }
+
+    /**
+     * @param e an expression
+     * @return the number of nodes on the longest path from it to a leaf
+     */
+    static int height(ExpressionNode e) {
+        if (e instanceof BinaryOperation) {
+            return ((BinaryOperation) e).height();
+        } else if (e instanceof UnaryOperation) {
+            return ((UnaryOperation) e).height();
+        }
+        return 1;
+    }
+
+    /**
+     * @param e an expression
+     * @return true if it is too high to walk by recursion
+     */
+    static boolean deep(ExpressionNode e) {
+        return height(e) > SHALLOW;
+    }
+
+    /**
+     * @param e   an expression
+     * @param env the program's variables, already resolved
+     * @return the value of the expression
+     */
+    static int evaluate(ExpressionNode e, Environment env) {
+        return evaluate(e, operand -> operand.evaluate(env));
+    }
+
+    /**
+     * @param e      an expression
+     * @param symTab the program's variables
+     * @return the value of the expression
+     */
+    static int evaluate(ExpressionNode e, Map<String, Integer> symTab) {
+        return evaluate(e, operand -> operand.evaluate(symTab));
+    }
+
+    /**
+     * Evaluate an expression, in the same order as the recursive
+     * evaluate methods: a divisor is evaluated, and checked, before its
+     * dividend, and everything else from left to right.
+     *
+     * @param root    the expression
+     * @param shallow how to evaluate a shallow subexpression
+     * @return the value of the expression
+     */
+    private static int evaluate(ExpressionNode root, ToIntFunction<ExpressionNode> shallow) {
+        ExpressionNode[] nodes = new ExpressionNode[SHALLOW];
+        int[] states = new int[SHALLOW];
+        int[] values = new int[SHALLOW];
+        int top = 0;
+        int value = -1;
+        nodes[0] = root;
+        while (top >= 0) {
+            ExpressionNode e = nodes[top];
+            if (!deep(e)) {
+                top--;
+                if (++value == values.length) {
+                    values = Arrays.copyOf(values, 2 * values.length);
+                }
+                values[value] = shallow.applyAsInt(e);
+                continue;
+            }
+            ExpressionNode next;
+            if (e instanceof UnaryOperation) {
+                UnaryOperation u = (UnaryOperation) e;
+                if (states[top]++ == 1) {
+                    values[value] = u.apply(values[value]);
+                    top--;
+                    continue;
+                }
+                next = u.operand();
+            } else {
+                BinaryOperation b = (BinaryOperation) e;
+                boolean divide = b.operator().equals(BinaryOperation.DIV);
+                switch (states[top]++) {
+                    case 0:
+                        next = divide ? b.right() : b.left();
+                        break;
+                    case 1:
+                        if (divide && values[value] == 0) {
+                            Errors.report(Errors.Type.DIVIDE_BY_ZERO, null);
+                        }
+                        next = divide ? b.left() : b.right();
+                        break;
+                    default:
+                        int second = values[value--];
+                        values[value] = divide ?
+                                b.apply(second, values[value]) : b.apply(values[value], second);
+                        top--;
+                        continue;
+                }
+            }
+            if (++top == nodes.length) {
+                nodes = Arrays.copyOf(nodes, 2 * nodes.length);
+                states = Arrays.copyOf(states, nodes.length);
+            }
+            nodes[top] = next;
+            states[top] = 0;
+        }
+        return values[0];
+    }
+
+    /**
+     * @param e   an expression
+     * @param env the program's variables, which its variables are
+     *            given slots in
+     */
+    static void resolve(ExpressionNode e, Environment env) {
+        walk(e, operand -> operand.resolve(env));
+    }
+
+    /**
+     * @param e    an expression
+     * @param code the program being built, to which the expression's
+     *             instructions are added
+     */
+    static void emit(ExpressionNode e, Code code) {
+        walk(e, new Visitor() {
+            @Override
+            public void shallow(ExpressionNode operand) {
+                operand.emit(code);
+            }
+
+            @Override
+            public void exit(ExpressionNode operation) {
+                code.add(operation instanceof BinaryOperation ?
+                        ((BinaryOperation) operation).instruction() :
+                        ((UnaryOperation) operation).instruction());
+            }
+        });
+    }
+
+    /**
+     * Show an expression in infix form on standard output, as the
+     * recursive infixDisplay methods do.
+     *
+     * @param e the expression
+     */
+    static void infixDisplay(ExpressionNode e) {
+        walk(e, new Visitor() {
+            @Override
+            public void shallow(ExpressionNode operand) {
+                operand.infixDisplay();
+            }
+
+            @Override
+            public void enter(ExpressionNode operation) {
+                System.out.print(operation instanceof BinaryOperation ?
+                        " ( " : ((UnaryOperation) operation).operator());
+            }
+
+            @Override
+            public void between(BinaryOperation b) {
+                System.out.print(" " + b.operator() + " ");
+            }
+
+            @Override
+            public void exit(ExpressionNode operation) {
+                if (operation instanceof BinaryOperation) {
+                    System.out.print(" ) ");
+                }
+            }
+        });
+    }
+
+    /**
+     * Visit the nodes of an expression from left to right.
+     *
+     * @param root    the expression
+     * @param visitor what to do at each node
+     */
+    private static void walk(ExpressionNode root, Visitor visitor) {
+        ExpressionNode[] nodes = new ExpressionNode[SHALLOW];
+        int[] states = new int[SHALLOW];
+        int top = 0;
+        nodes[0] = root;
+        while (top >= 0) {
+            ExpressionNode e = nodes[top];
+            if (!deep(e)) {
+                visitor.shallow(e);
+                top--;
+                continue;
+            }
+            ExpressionNode next;
+            if (e instanceof UnaryOperation) {
+                if (states[top]++ == 0) {
+                    visitor.enter(e);
+                    next = ((UnaryOperation) e).operand();
+                } else {
+                    visitor.exit(e);
+                    top--;
+                    continue;
+                }
+            } else {
+                BinaryOperation b = (BinaryOperation) e;
+                switch (states[top]++) {
+                    case 0:
+                        visitor.enter(b);
+                        next = b.left();
+                        break;
+                    case 1:
+                        visitor.between(b);
+                        next = b.right();
+                        break;
+                    default:
+                        visitor.exit(b);
+                        top--;
+                        continue;
+                }
+            }
+            if (++top == nodes.length) {
+                nodes = Arrays.copyOf(nodes, 2 * nodes.length);
+                states = Arrays.copyOf(states, nodes.length);
+            }
+            nodes[top] = next;
+            states[top] = 0;
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package dendron.tree;
 
 import java.util.List;
+import dendron.machine.Code;
 import dendron.machine.Machine;
 
 /**
@@ -23,7 +24,20 @@ public interface DendronNode {
      * the intent of this DendronNode and its descendants.
      * @return the Machine Instructions for this node
      */
-    List<  Machine.Instruction> emit();
+    default List<  Machine.Instruction> emit() {
+        Code code = new Code();
+        emit( code );
+        return code;
+    }
+
+    /**
+     * Add the instructions for this DendronNode and its descendants to
+     * the end of a program, in one pass over the tree. Instructions
+     * without operands are the shared instances in {@link Machine}, and
+     * each variable's LOAD and STORE are shared through the program.
+     * @param code the program being built
+     */
+    void emit( Code code );
 }
 
 
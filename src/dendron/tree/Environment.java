@@ -0,0 +1,77 @@
+package dendron.tree;
+
+import dendron.Errors;
+import dendron.machine.SymbolTable;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * The variables of a program the tree interpreter is running. Before
+ * the program runs, a pass over it ({@link ActionNode#resolve}) gives
+ * each identifier a slot, and each Variable and Assignment node keeps
+ * its slot; running the program then reads and writes an int array by
+ * slot, with no hashing of names or boxing of values.
+ */
+public class Environment {
+
+    private final SymbolTable symbols = new SymbolTable();
+    private int[] values = new int[16];
+    private boolean[] assigned = new boolean[16];
+
+    /**
+     * @param name a variable's name
+     * @return the variable's slot, which is given it the first time
+     */
+    public int slot(String name) {
+        int slot = symbols.slot(name);
+        if (slot >= values.length) {
+            values = Arrays.copyOf(values, Math.max(2 * values.length, slot + 1));
+            assigned = Arrays.copyOf(assigned, values.length);
+        }
+        return slot;
+    }
+
+    /**
+     * @param slot a variable's slot
+     * @return the variable's value
+     */
+    int get(int slot) {
+        if (!assigned[slot]) {
+            Errors.report(Errors.Type.UNINITIALIZED, symbols.name(slot));
+        }
+        return values[slot];
+    }
+
+    /**
+     * @param slot  a variable's slot
+     * @param value the variable's new value
+     */
+    void set(int slot, int value) {
+        values[slot] = value;
+        assigned[slot] = true;
+    }
+
+    /**
+     * Forget the variables' values, keeping their slots, so that the
+     * program can be run again.
+     */
+    public void clear() {
+        Arrays.fill(assigned, false);
+    }
+
+    /**
+     * @return the program's variables
+     */
+    public SymbolTable symbols() {
+        return symbols;
+    }
+
+    /**
+     * @return the variables that have been given a value, and their
+     * values, e.g. for {@link Errors#dump(Map)}
+     */
+    public Map<String, Integer> toMap() {
+        return symbols.toMap(values, assigned);
+    }
+}
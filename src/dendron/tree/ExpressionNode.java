@@ -1,5 +1,7 @@
 package dendron.tree;
 
+import dendron.machine.RegisterCode;
+
 import java.util.Map;
 
 /**
@@ -17,4 +19,49 @@ public interface ExpressionNode extends DendronNode {
      * @return the result of the evaluation
      */
     int evaluate( Map< String, Integer > symTab );
+
+    /**
+     * Evaluate the expression represented by this node, once its
+     * variables have been resolved.
+     *
+     * @param env the program's variables
+     * @return the result of the evaluation
+     * @see #resolve(Environment)
+     */
+    int evaluate( Environment env );
+
+    /**
+     * Give the variables in this expression their slots.
+     *
+     * @param env the program's variables
+     */
+    void resolve( Environment env );
+
+    /**
+     * Generate three-address code that computes the value of this
+     * expression, for the register machine.
+     *
+     * @param code the program being built
+     * @return the register that will hold the value
+     */
+    int lower( RegisterCode code );
+
+    /**
+     * Compile this expression into a closure that evaluates it.
+     *
+     * @param code the closure program being built
+     * @return the closure
+     */
+    Closures.Expression closure( Closures code );
+
+    /**
+     * Compute what can be computed of this expression before the
+     * program runs.
+     *
+     * @param code the pass being run
+     * @return an expression with the same value and errors; this node
+     *         if there is nothing to simplify
+     * @see Simplifier
+     */
+    ExpressionNode simplify( Simplifier code );
 }
@@ -0,0 +1,366 @@
+package dendron.tree;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.CharBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * Splits Dendron source text into tokens for the {@link ParseTree}.
+ * Tokens are separated by whitespace, and each is one of the kinds
+ * in {@link Type}.
+ * <p>
+ * The lexer works on the text in place: it classifies each token by
+ * looking at its characters, reads integers straight out of the text,
+ * and keeps one String for each distinct identifier, so the only
+ * objects it makes while lexing are the first String for each name.
+ * <p>
+ * Text from a Reader is read a buffer at a time, so a lexer needs no
+ * more memory than its longest token and its identifiers, however long
+ * the text is.
+ */
+public class Lexer {
+
+    /**
+     * The kinds of token
+     */
+    public enum Type {
+        /** a binary operator, one of {@link BinaryOperation#OPERATIONS} */
+        OPERATOR,
+        /** a unary operator, one of {@link UnaryOperation#OPERATORS} */
+        UNARY_OPERATOR,
+        /** a variable name: a letter followed by anything */
+        IDENTIFIER,
+        /** a decimal int, possibly signed */
+        INTEGER,
+        /** the start of an assignment, := */
+        ASSIGN,
+        /** the start of a print statement, @ */
+        PRINT,
+        /** anything else */
+        ILLEGAL
+    }
+
+    private static final int BUFFER_SIZE = 8192;
+
+    // The tokens, when they were separated before the lexer got them
+    private final Iterator<String> tokens;
+
+    // Where more text comes from, when it is not all in memory, and the
+    // buffer it is read into, which text wraps
+    private final Reader in;
+    private char[] buf = null;
+
+    // The current token is text[start, end). Unread text is text[pos, limit).
+    private CharSequence text;
+    private int pos = 0;
+    private int limit;
+    private int start = 0;
+    private int end = 0;
+    private Type type = null;
+    private String name = null;
+    private int intValue = 0;
+
+    // Open-addressed table of the identifiers seen so far
+    private String[] names = new String[64];
+    private int identifiers = 0;
+
+    /**
+     * @param text Dendron source
+     */
+    public Lexer(CharSequence text) {
+        this.tokens = null;
+        this.in = null;
+        this.text = text;
+        this.limit = text.length();
+    }
+
+    /**
+     * Classify tokens that have already been separated. Each string is
+     * one token, whatever it contains.
+     *
+     * @param tokens the tokens
+     */
+    public Lexer(Iterator<String> tokens) {
+        this.tokens = tokens;
+        this.in = null;
+        this.text = "";
+        this.limit = 0;
+    }
+
+    /**
+     * Read Dendron source as it is needed. An IOException from the
+     * reader is thrown from {@link #next()} as an UncheckedIOException.
+     *
+     * @param in the source
+     */
+    public Lexer(Reader in) {
+        this.tokens = null;
+        this.in = in;
+        this.buf = new char[BUFFER_SIZE];
+        this.text = CharBuffer.wrap(buf);
+        this.limit = 0;
+    }
+
+    /**
+     * Move to the next token.
+     *
+     * @return false if there are no more tokens
+     */
+    public boolean next() {
+        if (tokens != null) {
+            if (!tokens.hasNext()) {
+                type = null;
+                return false;
+            }
+            text = tokens.next();
+            start = 0;
+            end = text.length();
+        } else {
+            while (true) {
+                if (pos == limit && !refill()) {
+                    type = null;
+                    return false;
+                }
+                if (!Character.isWhitespace(text.charAt(pos))) {
+                    break;
+                }
+                pos++;
+            }
+            start = pos;
+            while ((pos < limit || readMore()) && !Character.isWhitespace(text.charAt(pos))) {
+                pos++;
+            }
+            end = pos;
+        }
+        type = classify();
+        return true;
+    }
+
+    /**
+     * Read more text when all of it has been lexed.
+     *
+     * @return false if there is no more
+     */
+    private boolean refill() {
+        if (in == null) {
+            return false;
+        }
+        pos = 0;
+        limit = Math.max(0, read(0));
+        return limit > 0;
+    }
+
+    /**
+     * Read more text when a token runs off the end of the buffer,
+     * keeping what there is of the token.
+     *
+     * @return false if there is no more
+     */
+    private boolean readMore() {
+        if (in == null) {
+            return false;
+        }
+        int length = pos - start;
+        if (start > 0) {
+            System.arraycopy(buf, start, buf, 0, length);
+            start = 0;
+            pos = limit = length;
+        } else if (length == buf.length) {
+            buf = Arrays.copyOf(buf, 2 * buf.length);
+            text = CharBuffer.wrap(buf);
+        }
+        int n = read(limit);
+        if (n <= 0) {
+            return false;
+        }
+        limit += n;
+        return true;
+    }
+
+    /**
+     * @param offset where in the buffer to put the text
+     * @return how many characters were read, or -1 at the end
+     */
+    private int read(int offset) {
+        try {
+            return in.read(buf, offset, buf.length - offset);
+        }
+        catch (IOException ioe) {
+            throw new UncheckedIOException(ioe);
+        }
+    }
+
+    /**
+     * @return what kind of token the current one is, or null if
+     * there are no more
+     */
+    public Type type() {
+        return type;
+    }
+
+    /**
+     * @return the current token if it is an operator or an identifier:
+     * the operator's constant from {@link BinaryOperation} or
+     * {@link UnaryOperation}, or the one String this lexer uses for
+     * the identifier
+     */
+    public String name() {
+        return name;
+    }
+
+    /**
+     * @return the current token's value if it is an integer
+     */
+    public int intValue() {
+        return intValue;
+    }
+
+    /**
+     * @return a copy of the current token's text
+     */
+    public String text() {
+        return text.subSequence(start, end).toString();
+    }
+
+    /**
+     * @return the current token's kind, after setting name or intValue
+     */
+    private Type classify() {
+        int length = end - start;
+        if (length == 0) {
+            return Type.ILLEGAL;
+        }
+        char c = text.charAt(start);
+        if (length == 1) {
+            switch (c) {
+                case '+':
+                    name = BinaryOperation.ADD;
+                    return Type.OPERATOR;
+                case '-':
+                    name = BinaryOperation.SUB;
+                    return Type.OPERATOR;
+                case '*':
+                    name = BinaryOperation.MUL;
+                    return Type.OPERATOR;
+                case '/':
+                    name = BinaryOperation.DIV;
+                    return Type.OPERATOR;
+                case '_':
+                    name = UnaryOperation.NEG;
+                    return Type.UNARY_OPERATOR;
+                case '#':
+                    name = UnaryOperation.SQRT;
+                    return Type.UNARY_OPERATOR;
+                case '@':
+                    return Type.PRINT;
+            }
+        } else if (length == 2 && c == ':' && text.charAt(start + 1) == '=') {
+            return Type.ASSIGN;
+        }
+        if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')) {
+            name = identifier();
+            return Type.IDENTIFIER;
+        }
+        return parseInt() ? Type.INTEGER : Type.ILLEGAL;
+    }
+
+    /**
+     * Convert the current token to an integer, leaving it in intValue.
+     *
+     * @return false if the token is not a decimal int
+     */
+    private boolean parseInt() {
+        int i = start;
+        boolean negative = false;
+        char c = text.charAt(i);
+        if (c == '-' || c == '+') {
+            negative = c == '-';
+            i++;
+        }
+        if (i == end) {
+            return false;
+        }
+        long value = 0;
+        for (; i < end; i++) {
+            int digit = text.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return false;
+            }
+            value = value * 10 + digit;
+            if (value > 1L + Integer.MAX_VALUE) {
+                return false;
+            }
+        }
+        value = negative ? -value : value;
+        if (value > Integer.MAX_VALUE) {
+            return false;
+        }
+        intValue = (int) value;
+        return true;
+    }
+
+    /**
+     * @return the String for the identifier that is the current token,
+     * made the first time the identifier is seen
+     */
+    private String identifier() {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + text.charAt(i);
+        }
+        int mask = names.length - 1;
+        int index = (hash ^ (hash >>> 16)) & mask;
+        while (names[index] != null) {
+            if (tokenIs(names[index])) {
+                return names[index];
+            }
+            index = (index + 1) & mask;
+        }
+        String identifier = text instanceof String && start == 0 && end == text.length() ?
+                (String) text : text();
+        names[index] = identifier;
+        if (++identifiers * 2 > names.length) {
+            rehash();
+        }
+        return identifier;
+    }
+
+    /**
+     * @param word some text
+     * @return true if the current token is exactly the text
+     */
+    private boolean tokenIs(String word) {
+        int length = end - start;
+        if (word.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (text.charAt(start + i) != word.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Double the size of the identifier table.
+     */
+    private void rehash() {
+        String[] old = names;
+        names = new String[2 * old.length];
+        int mask = names.length - 1;
+        for (String identifier : old) {
+            if (identifier != null) {
+                int hash = identifier.hashCode();
+                int index = (hash ^ (hash >>> 16)) & mask;
+                while (names[index] != null) {
+                    index = (index + 1) & mask;
+                }
+                names[index] = identifier;
+            }
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package dendron.tree;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Makes expression nodes, making each distinct expression only once.
+ * Asking for an expression written the same way as one made before
+ * returns the earlier node, so a tree built with one factory is a DAG
+ * in which identical subexpressions are one node, and two expressions
+ * from it are written the same way exactly when they are the same node.
+ * <p>
+ * The nodes are not immutable: a {@link Variable} keeps the slot it was
+ * last resolved to (see {@link Environment}), and each resolve of a tree
+ * overwrites it. Sharing a Variable within one program is still safe,
+ * since one Environment gives a name the same slot wherever it occurs.
+ * A tree resolved against one Environment must not be run while it is
+ * being resolved against another, though, nor run against both at once.
+ */
+public class NodeFactory {
+
+    /**
+     * What an operation node is made of. Its operands are nodes from
+     * this factory, so they are compared by identity.
+     */
+    private static final class Key {
+        private final String operator;
+        private final ExpressionNode left;
+        private final ExpressionNode right;
+
+        Key(String operator, ExpressionNode left, ExpressionNode right) {
+            this.operator = operator;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key k = (Key) o;
+            return operator.equals(k.operator) && left == k.left && right == k.right;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(operator, System.identityHashCode(left),
+                    System.identityHashCode(right));
+        }
+    }
+
+    private final Map<Integer, Constant> constants = new HashMap<>();
+    private final Map<String, Variable> variables = new HashMap<>();
+    private final Map<Key, ExpressionNode> operations = new HashMap<>();
+    private int requested = 0;
+
+    /**
+     * @param value a number
+     * @return the constant node for the number
+     */
+    public Constant constant(int value) {
+        requested++;
+        return constants.computeIfAbsent(value, Constant::new);
+    }
+
+    /**
+     * @param name a variable's name
+     * @return the node for the variable
+     */
+    public Variable variable(String name) {
+        requested++;
+        return variables.computeIfAbsent(name, Variable::new);
+    }
+
+    /**
+     * @param operator one of {@link UnaryOperation#OPERATORS}
+     * @param operand  a node from this factory
+     * @return the node for the operation
+     */
+    public ExpressionNode unary(String operator, ExpressionNode operand) {
+        requested++;
+        return operations.computeIfAbsent(new Key(operator, operand, null),
+                k -> UnaryOperation.of(operator, operand));
+    }
+
+    /**
+     * @param operator one of {@link BinaryOperation#OPERATIONS}
+     * @param left     a node from this factory
+     * @param right    a node from this factory
+     * @return the node for the operation
+     */
+    public ExpressionNode binary(String operator, ExpressionNode left, ExpressionNode right) {
+        requested++;
+        return operations.computeIfAbsent(new Key(operator, left, right),
+                k -> BinaryOperation.of(operator, left, right));
+    }
+
+    /**
+     * @param e an expression made some other way
+     * @return the node from this factory written the same way
+     */
+    public ExpressionNode intern(ExpressionNode e) {
+        if (e instanceof Constant) {
+            return constant(((Constant) e).value());
+        } else if (e instanceof Variable) {
+            return variable(((Variable) e).name());
+        } else if (e instanceof UnaryOperation) {
+            UnaryOperation u = (UnaryOperation) e;
+            return unary(u.operator(), intern(u.operand()));
+        }
+        BinaryOperation b = (BinaryOperation) e;
+        return binary(b.operator(), intern(b.left()), intern(b.right()));
+    }
+
+    /**
+     * @return how many nodes have been asked for
+     */
+    public int requested() {
+        return requested;
+    }
+
+    /**
+     * @return how many nodes have been made
+     */
+    public int created() {
+        return constants.size() + variables.size() + operations.size();
+    }
+}
@@ -1,11 +1,19 @@
 package dendron.tree;
 
 import dendron.Errors;
+import dendron.Output;
+import dendron.machine.Code;
 import dendron.machine.Machine;
+import dendron.machine.RegisterCode;
 
-import java.util.HashMap;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
 
 /**
  * Operations that are done on a Dendron code parse tree.
@@ -17,82 +25,274 @@ import java.util.Map;
 public class ParseTree {
 
     private Program tokenList;
+    // The tokens being parsed, while the constructor runs
+    private Lexer tokens;
+    // The operations whose operands are being parsed, innermost last,
+    // and the left operands of those that have one so far
+    private String[] operators;
+    private boolean[] binary;
+    private ExpressionNode[] lefts;
+    // What the parser makes expressions with, while it runs
+    private NodeFactory nodes = new NodeFactory();
+    // How many nodes the parser shared instead of making them again
+    private int shared = 0;
+    // How many temporary variables the program has been given
+    private int temporaries = 0;
 
     /**
      * Parse the entire list of program tokens. The program is a
      * sequence of actions (statements), each of which modifies something
      * in the program's set of variables. The resulting parse tree is
-     * stored internally.
+     * stored internally. The list is not changed.
      *
      * @param program the token list (Strings)
      */
     public ParseTree(List<String> program) {
+        this(program.iterator());
+    }
+
+    /**
+     * Parse a program given as a sequence of tokens. Each token is
+     * read once, in order, so parsing takes time in proportion to the
+     * length of the program whatever holds the tokens.
+     *
+     * @param program the tokens (Strings)
+     */
+    public ParseTree(Iterator<String> program) {
+        this(new Lexer(program));
+    }
+
+    /**
+     * Parse a program's source text, with tokens separated by whitespace.
+     *
+     * @param source the program
+     */
+    public ParseTree(CharSequence source) {
+        this(new Lexer(source));
+    }
+
+    /**
+     * Parse the program the lexer reads.
+     *
+     * @param program the program's tokens
+     */
+    private ParseTree(Lexer program) {
         this.tokenList = new Program();//root node of program.
-        while (program.size() != 0) {
-            tokenList.addAction(parseAction(program));
+        parse(program, tokenList::addAction);
+        this.shared = nodes.requested() - nodes.created();
+        this.nodes = null;
+    }
+
+    /**
+     * A parser that keeps no program.
+     */
+    private ParseTree() {
+        this.tokenList = null;
+    }
+
+    /**
+     * Parse a program while it is being read, and hand each statement
+     * on as soon as it has been parsed. Nothing keeps the statements,
+     * so memory use is bounded by the largest statement, not by the
+     * length of the program.
+     *
+     * @param source the program's text
+     * @param sink   what to give each statement to, in order
+     * @throws IOException if the text cannot be read
+     */
+    public static void stream(Reader source, Consumer<ActionNode> sink) throws IOException {
+        ParseTree parser = new ParseTree();
+        // Nodes are not shared, since nothing keeps them
+        parser.nodes = null;
+        try {
+            parser.parse(new Lexer(source), sink);
+        }
+        catch (UncheckedIOException e) {
+            throw e.getCause();
         }
     }
 
     /**
-     * Parse the next action (statement) in the list.
-     * (This method is not required, just suggested.)
+     * Run a program while it is being read, executing each statement
+     * as soon as it has been parsed. A well-formed program gives the
+     * same output as {@link #interpret()}. A malformed one does not:
+     * the statements before the error have already run, and printed
+     * what they print, by the time it is found. For example,
+     * {@code @ 5 @ +} prints {@code === 5} and then reports a premature
+     * end, where interpret() reports the error without printing anything.
      *
-     * @param program the list of tokens
-     * @return a parse tree for the action
+     * @param source the program's text
+     * @return the symbol table the program leaves
+     * @throws IOException if the text cannot be read
+     * @see #stream(Reader, Consumer)
      */
-    private ActionNode parseAction(List<String> program) {
-        ActionNode x = null;
-        if (program.get(0).equals(":=")) {
-            program.remove(0);
-            String f = program.get(0);
-            program.remove(0);
-            x = new Assignment(f, parseExpr(program));
+    public static Map<String, Integer> interpret(Reader source) throws IOException {
+        Environment env = new Environment();
+        System.out.println("Interpreting the parse tree...");
+        stream(source, action -> {
+            action.resolve(env);
+            action.execute(env);
+        });
+        Output.sink().flush();
+        System.out.println("Interpretation complete.");
+        System.out.println();
+        System.out.println("Symbol Table Contents");
+        System.out.println("=====================");
+        return env.toMap();
+    }
 
-        } else if (program.get(0).equals("@")) {
-            program.remove(0);
-            x = new Print(parseExpr(program));
+    /**
+     * Parse all the statements the lexer reads.
+     *
+     * @param program the program's tokens
+     * @param sink    what to give each statement to, in order
+     */
+    private void parse(Lexer program, Consumer<ActionNode> sink) {
+        this.tokens = program;
+        this.operators = new String[DeepExpressions.SHALLOW];
+        this.binary = new boolean[DeepExpressions.SHALLOW];
+        this.lefts = new ExpressionNode[DeepExpressions.SHALLOW];
+        while (program.next()) {
+            sink.accept(parseAction());
+        }
+        this.tokens = null;
+        this.operators = null;
+        this.binary = null;
+        this.lefts = null;
+    }
 
+    /**
+     * Move to the next token, which the statement being parsed needs.
+     */
+    private void advance() {
+        if (!tokens.next()) {
+            Errors.report(Errors.Type.PREMATURE_END, null);
+        }
+    }
+
+    /**
+     * Parse the action (statement) that starts at the current token.
+     *
+     * @return a parse tree for the action
+     */
+    private ActionNode parseAction() {
+        ActionNode x = null;
+        switch (tokens.type()) {
+            case ASSIGN:
+                advance();
+                if (tokens.type() != Lexer.Type.IDENTIFIER) {
+                    Errors.report(Errors.Type.ILLEGAL_VALUE, tokens.text());
+                }
+                String f = tokens.name();
+                x = new Assignment(f, parseExpr());
+                break;
+            case PRINT:
+                x = new Print(parseExpr());
+                break;
+            default:
+                Errors.report(Errors.Type.ILLEGAL_VALUE, tokens.text());
         }
         return x;
     }
 
     /**
-     * Parse the next expression in the list.
-     * (This method is not required, just suggested.)
+     * Parse the next expression in the program. The operations whose
+     * operands are still to come are kept on a stack rather than in
+     * Java stack frames, so an expression may be nested any depth.
      *
-     * @param program the list of tokens
      * @return a parse tree for this expression
      */
-    private ExpressionNode parseExpr(List<String> program) {
-        String ex = program.remove(0);
-
-        if (BinaryOperation.OPERATIONS.contains(ex)) {
-            ExpressionNode leftChild = parseExpr(program);
-            ExpressionNode rightChild = parseExpr(program);
-            if (leftChild == null || rightChild == null) {
-                Errors.report(Errors.Type.PREMATURE_END, null);
+    private ExpressionNode parseExpr() {
+        int pending = 0;
+        while (true) {
+            advance();
+            ExpressionNode e;
+            switch (tokens.type()) {
+                case OPERATOR:
+                case UNARY_OPERATOR:
+                    if (pending == operators.length) {
+                        operators = Arrays.copyOf(operators, 2 * pending);
+                        binary = Arrays.copyOf(binary, 2 * pending);
+                        lefts = Arrays.copyOf(lefts, 2 * pending);
+                    }
+                    operators[pending] = tokens.name();
+                    binary[pending++] = tokens.type() == Lexer.Type.OPERATOR;
+                    continue;
+                case IDENTIFIER:
+                    e = nodes != null ? nodes.variable(tokens.name()) :
+                            new Variable(tokens.name());
+                    break;
+                case INTEGER:
+                    e = nodes != null ? nodes.constant(tokens.intValue()) :
+                            new Constant(tokens.intValue());
+                    break;
+                default:
+                    Errors.report(Errors.Type.ILLEGAL_VALUE, null);
+                    return null;
+            }
+            // e completes the operations waiting for their last operand
+            while (pending > 0) {
+                int top = pending - 1;
+                if (binary[top] && lefts[top] == null) {
+                    lefts[top] = e;
+                    break;
+                }
+                String operator = operators[top];
+                if (binary[top]) {
+                    e = nodes != null ? nodes.binary(operator, lefts[top], e) :
+                            BinaryOperation.of(operator, lefts[top], e);
+                    lefts[top] = null;
+                } else {
+                    e = nodes != null ? nodes.unary(operator, e) :
+                            UnaryOperation.of(operator, e);
+                }
+                pending--;
+            }
+            if (pending == 0) {
+                return e;
             }
-            BinaryOperation b = new BinaryOperation(ex, leftChild, rightChild);
-            return b;
-        } else if (UnaryOperation.OPERATORS.contains(ex)) {
-
-            UnaryOperation sqrt = new UnaryOperation(ex, parseExpr(program));
-            return sqrt;
-
-        } else if (ex.matches("^[a-zA-Z].*")) {
-            Variable v = new Variable(ex);
-            return v;
-        } else if (ex.matches("[-+]?\\d+")) {
-            int cst = Integer.parseInt(ex);
-            Constant u = new Constant(cst);
-            return u;
-        } else {
-            Errors.report(Errors.Type.ILLEGAL_VALUE, null);
-            return null;
         }
     }
 
 
+    /**
+     * Compute what can be computed of the program before it runs: fold
+     * constant expressions and remove operations that do nothing. The
+     * program prints the same values and reports the same errors as
+     * before, whichever way it is then run.
+     *
+     * @return how many nodes were removed from the tree
+     * @see Simplifier
+     */
+    public int simplify() {
+        Simplifier code = new Simplifier();
+        tokenList.simplify(code);
+        return code.eliminated();
+    }
+
+    /**
+     * Have the program compute each repeated subexpression once, keeping
+     * its value in a temporary variable for the statements that use it.
+     *
+     * @return how many evaluations of operations were removed
+     * @see CommonSubexpressions
+     */
+    public int eliminateCommonSubexpressions() {
+        CommonSubexpressions code = new CommonSubexpressions(temporaries);
+        int removed = code.rewrite(tokenList);
+        temporaries = code.temporaries();
+        return removed;
+    }
+
+    /**
+     * @return how many expression nodes the parser did not have to make,
+     * because an expression written the same way had already been made
+     * @see NodeFactory
+     */
+    public int sharedNodes() {
+        return shared;
+    }
+
     /**
      * Print the program the tree represents in a more typical
      * infix style, and with one statement per line.
@@ -104,14 +304,17 @@ public class ParseTree {
     }
 
     /**
-     * Run the program represented by the tree directly
+     * Run the program represented by the tree directly, after giving
+     * its variables slots in an Environment
      *
-     * @see dendron.tree.ActionNode  #execute(Map)
+     * @see dendron.tree.ActionNode#execute(Environment)
      */
     public void interpret() {
-        Map<String, Integer> symTab = new HashMap<>();
+        Environment env = new Environment();
+        tokenList.resolve(env);
         System.out.println("Interpreting the parse tree...");
-        tokenList.execute(symTab);
+        tokenList.execute(env);
+        Output.sink().flush();
         System.out.println("Interpretation complete.");
         System.out.println();
         System.out.println("Symbol Table Contents");
@@ -119,15 +322,63 @@ public class ParseTree {
 
     }
 
+    /**
+     * Run the program represented by the tree after compiling it into
+     * closures, with the same output as {@link #interpret()}
+     *
+     * @see #compileClosures()
+     */
+    public void interpretClosures() {
+        Closures code = compileClosures();
+        System.out.println("Interpreting the parse tree...");
+        code.run(code.newFrame());
+        Output.sink().flush();
+        System.out.println("Interpretation complete.");
+        System.out.println();
+        System.out.println("Symbol Table Contents");
+        System.out.println("=====================");
+    }
+
+    /**
+     * Compile the program represented by the tree into closures,
+     * for running many times without walking the tree.
+     *
+     * @return the compiled program
+     * @see Closures#run(int[])
+     */
+    public Closures compileClosures() {
+        Closures code = new Closures();
+        code.setProgram(tokenList.closure(code));
+        return code;
+    }
+
     /**
      * Build the list of machine instructions for
-     * the program represented by the tree.
+     * the program represented by the tree, in one pass over it that
+     * adds to a single program. The variables are resolved to register
+     * slots once, here.
      *
      * @return the Machine.Instruction list
-     * @see Machine.Instruction#execute()
+     * @see Machine.Instruction#execute(Machine)
+     * @see Code#link
      */
     public List<Machine.Instruction> compile() {
-        return tokenList.emit();
+        Code code = new Code();
+        tokenList.emit(code);
+        return code;
+    }
+
+    /**
+     * Build a three-address program for the register machine
+     * from the program represented by the tree.
+     *
+     * @return the register program
+     * @see dendron.machine.RegisterMachine#run(RegisterCode)
+     */
+    public RegisterCode compileRegisters() {
+        RegisterCode code = new RegisterCode();
+        tokenList.lower(code);
+        return code;
     }
 
 }
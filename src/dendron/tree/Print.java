@@ -3,13 +3,19 @@ package dendron.tree;
  * A node that represents the displaying of the value of an expression on the console
  */
 
+import dendron.Output;
+import dendron.machine.Code;
 import dendron.machine.Machine;
+import dendron.machine.RegisterCode;
 
-import java.util.ArrayList;
-import java.util.List;
 import java.util.Map;
 
 public class Print implements ActionNode {
+    /**
+     * What is printed in front of each value
+     */
+    public static final String MARKER = "=== ";
+
 
     private final ExpressionNode printee;
 
@@ -27,7 +33,24 @@ public class Print implements ActionNode {
     @Override
     public void execute(Map<String, Integer> symTab) {
         int i = printee.evaluate(symTab);
-        System.out.println("=== " + i);
+        Output.sink().print(MARKER, i);
+    }
+
+    /**
+     * @param env the program's variables
+     */
+    @Override
+    public void execute(Environment env) {
+        Output.sink().print(MARKER, printee.evaluate(env));
+    }
+
+    /**
+     * @param env the program's variables, which those of the expression
+     *            are given slots in
+     */
+    @Override
+    public void resolve(Environment env) {
+        printee.resolve(env);
     }
 
     /**
@@ -40,15 +63,48 @@ public class Print implements ActionNode {
     }
 
     /**
-     * @return list of instruction.
+     * @param code the program being built, to which the expression's
+     *             instructions are added, followed by a PRINT
+     */
+    @Override
+    public void emit(Code code) {
+        printee.emit(code);
+        code.add(Machine.PRINT);
+    }
+
+    /**
+     * @param code the register program being built; the value of the
+     *             expression is printed
      */
     @Override
-    public List<Machine.Instruction> emit() {
-        List instruction = new ArrayList();
-        instruction.addAll(printee.emit());
+    public void lower(RegisterCode code) {
+        code.print(printee.lower(code));
+    }
 
-        Machine.Instruction print = new Machine.Print();
-        return instruction;
+    /**
+     * @param code the closure program being built
+     * @return a closure printing the value of the expression
+     */
+    @Override
+    public Closures.Action closure(Closures code) {
+        Closures.Expression value = printee.closure(code);
+        return frame -> Output.sink().print(MARKER, value.evaluate(frame));
+    }
 
+    /**
+     * @param code the pass being run
+     * @return the print statement with its expression simplified
+     */
+    @Override
+    public ActionNode simplify(Simplifier code) {
+        ExpressionNode value = printee.simplify(code);
+        return value == printee ? this : new Print(value);
+    }
+
+    /**
+     * @return the expression whose value is printed
+     */
+    ExpressionNode printee() {
+        return printee;
     }
 }
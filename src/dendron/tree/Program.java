@@ -3,7 +3,8 @@ package dendron.tree;
  * An ActionNode used to represent a sequence of other ActionNodes.
  */
 
-import dendron.machine.Machine;
+import dendron.machine.Code;
+import dendron.machine.RegisterCode;
 
 import java.util.ArrayList;
 
@@ -37,14 +38,73 @@ public class Program extends Object implements ActionNode {
     }
 
     /**
-     * @return the list of machine instruction
+     * Execute each ActionNode in this object, from first-added to last-added.
+     * @param env the program's variables
+     */
+    public void execute(Environment env){
+        for(ActionNode node: actionNodes){
+            node.execute(env);
+        }
+    }
+
+    /**
+     * Give the variables of each ActionNode in this object slots.
+     * @param env the program's variables
      */
-    public java.util.List<Machine.Instruction> emit() {
-        ArrayList<Machine.Instruction> instructions = new ArrayList<>();
+    public void resolve(Environment env){
         for(ActionNode node: actionNodes){
-            instructions.addAll(node.emit());
+            node.resolve(env);
+        }
+    }
+
+    /**
+     * Add the instructions of each ActionNode in this object, from first-added to last-added.
+     * @param code the program being built
+     */
+    public void emit(Code code) {
+        for(ActionNode node: actionNodes){
+            node.emit(code);
+        }
+    }
+
+    /**
+     * Lower each ActionNode in this object, from first-added to last-added.
+     * @param code the register program being built
+     */
+    public void lower(RegisterCode code) {
+        for(ActionNode node: actionNodes){
+            node.lower(code);
+        }
+    }
+
+    /**
+     * Compile each ActionNode in this object, from first-added to last-added.
+     * @param code the closure program being built
+     * @return a closure running the children's closures in order
+     */
+    public Closures.Action closure(Closures code) {
+        Closures.Action[] actions = new Closures.Action[actionNodes.size()];
+        for(int i = 0; i < actions.length; i++){
+            actions[i] = actionNodes.get(i).closure(code);
+        }
+        return frame -> {
+            for(Closures.Action action: actions){
+                action.execute(frame);
+            }
+        };
+    }
+
+    /**
+     * Simplify each ActionNode in this object, from first-added to last-added,
+     * replacing it with its simplified form.
+     * @param code the pass being run
+     * @return this program
+     */
+    public ActionNode simplify(Simplifier code) {
+        for(int i = 0; i < actionNodes.size(); i++){
+            actionNodes.set(i, actionNodes.get(i).simplify(code));
         }
-        return instructions;
+        return this;
     }
 
     /**
@@ -0,0 +1,218 @@
+package dendron.tree;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * A pass over a parse tree that computes what it can before the
+ * program runs. It folds operations whose operands are all constants,
+ * and removes operations that do nothing:
+ * <ul>
+ *     <li>_ _ e, e + 0, 0 + e, e - 0, e * 1, 1 * e and e / 1 become e</li>
+ *     <li>0 - e and e * -1 become _ e</li>
+ *     <li>e * 0, 0 * e and e - e become 0</li>
+ * </ul>
+ * A program gives the same output and the same errors before and after.
+ * A division by a constant 0 is left for the program to report when it
+ * gets there, and an expression is only dropped (as in e * 0) if it
+ * cannot fail: if it divides by nothing but nonzero constants, and its
+ * variables have all been assigned by then. Since Dendron programs
+ * have no branches, that last part is known exactly.
+ *
+ * @see ParseTree#simplify()
+ */
+public class Simplifier {
+
+    // The variables assigned by the statements simplified so far
+    private final Set<String> assigned = new HashSet<>();
+    private int eliminated = 0;
+
+    /**
+     * @return how many nodes have been removed from the tree so far
+     */
+    public int eliminated() {
+        return eliminated;
+    }
+
+    /**
+     * Note that a statement assigns a variable, so later statements may
+     * drop expressions that use it.
+     *
+     * @param name the variable
+     */
+    void assign(String name) {
+        assigned.add(name);
+    }
+
+    /**
+     * Simplify a binary operation whose operands have been simplified.
+     *
+     * @param operator the operator
+     * @param left     the simplified left operand
+     * @param right    the simplified right operand
+     * @return a simpler expression, or null if there is none
+     */
+    ExpressionNode binary(String operator, ExpressionNode left, ExpressionNode right) {
+        ExpressionNode simpler = null;
+        if (left instanceof Constant && right instanceof Constant) {
+            int l = ((Constant) left).value();
+            int r = ((Constant) right).value();
+            if (operator.equals(BinaryOperation.ADD)) {
+                simpler = new Constant(l + r);
+            } else if (operator.equals(BinaryOperation.SUB)) {
+                simpler = new Constant(l - r);
+            } else if (operator.equals(BinaryOperation.MUL)) {
+                simpler = new Constant(l * r);
+            } else if (r != 0) {
+                simpler = new Constant(l / r);
+            }
+        } else if (operator.equals(BinaryOperation.ADD)) {
+            if (is(right, 0)) {
+                simpler = left;
+            } else if (is(left, 0)) {
+                simpler = right;
+            }
+        } else if (operator.equals(BinaryOperation.SUB)) {
+            if (is(right, 0)) {
+                simpler = left;
+            } else if (is(left, 0)) {
+                simpler = UnaryOperation.of(UnaryOperation.NEG, right);
+            } else if (same(left, right) && !canFail(left)) {
+                simpler = new Constant(0);
+            }
+        } else if (operator.equals(BinaryOperation.MUL)) {
+            if (is(right, 1)) {
+                simpler = left;
+            } else if (is(left, 1)) {
+                simpler = right;
+            } else if (is(right, -1)) {
+                simpler = UnaryOperation.of(UnaryOperation.NEG, left);
+            } else if (is(left, -1)) {
+                simpler = UnaryOperation.of(UnaryOperation.NEG, right);
+            } else if (is(right, 0) && !canFail(left) || is(left, 0) && !canFail(right)) {
+                simpler = new Constant(0);
+            }
+        } else if (is(right, 1)) {
+            simpler = left;
+        }
+        // Count what is dropped without walking what is kept, which
+        // would take time quadratic in the depth of the expression.
+        if (simpler == left) {
+            eliminated += 1 + size(right);
+        } else if (simpler == right) {
+            eliminated += 1 + size(left);
+        } else if (simpler instanceof Constant) {
+            eliminated += size(left) + size(right);
+        } else if (simpler != null) {
+            // _ e takes the place of the operation and its constant operand.
+            eliminated += 1;
+        }
+        return simpler;
+    }
+
+    /**
+     * Simplify a unary operation whose operand has been simplified.
+     *
+     * @param operator the operator
+     * @param operand  the simplified operand
+     * @return a simpler expression, or null if there is none
+     */
+    ExpressionNode unary(String operator, ExpressionNode operand) {
+        ExpressionNode simpler = null;
+        if (operand instanceof Constant) {
+            int value = ((Constant) operand).value();
+            simpler = new Constant(operator.equals(UnaryOperation.NEG) ?
+                    -value : (int) Math.sqrt(value));
+            eliminated += 1;
+        } else if (operator.equals(UnaryOperation.NEG) && operand instanceof UnaryOperation) {
+            UnaryOperation inner = (UnaryOperation) operand;
+            if (inner.operator().equals(UnaryOperation.NEG)) {
+                simpler = inner.operand();
+                eliminated += 2;
+            }
+        }
+        return simpler;
+    }
+
+    /**
+     * @param e     an expression
+     * @param value a number
+     * @return true if the expression is the constant number
+     */
+    private static boolean is(ExpressionNode e, int value) {
+        return e instanceof Constant && ((Constant) e).value() == value;
+    }
+
+    /**
+     * @param a an expression
+     * @param b another expression
+     * @return true if the expressions are written the same way
+     */
+    static boolean same(ExpressionNode a, ExpressionNode b) {
+        if (a == b) {
+            return true;
+        } else if (a instanceof Constant && b instanceof Constant) {
+            return ((Constant) a).value() == ((Constant) b).value();
+        } else if (a instanceof Variable && b instanceof Variable) {
+            return ((Variable) a).name().equals(((Variable) b).name());
+        } else if (a instanceof UnaryOperation && b instanceof UnaryOperation) {
+            UnaryOperation x = (UnaryOperation) a;
+            UnaryOperation y = (UnaryOperation) b;
+            return x.operator().equals(y.operator()) && same(x.operand(), y.operand());
+        } else if (a instanceof BinaryOperation && b instanceof BinaryOperation) {
+            BinaryOperation x = (BinaryOperation) a;
+            BinaryOperation y = (BinaryOperation) b;
+            return x.operator().equals(y.operator()) &&
+                    same(x.left(), y.left()) && same(x.right(), y.right());
+        }
+        return false;
+    }
+
+    /**
+     * @param e an expression
+     * @return true if evaluating the expression here might report an error
+     */
+    private boolean canFail(ExpressionNode e) {
+        return canFail(e, assigned);
+    }
+
+    /**
+     * @param e        an expression
+     * @param assigned the variables that have values where it is evaluated
+     * @return true if evaluating the expression might report an error:
+     * it uses a variable not yet assigned, or divides by something
+     * other than a nonzero constant
+     */
+    static boolean canFail(ExpressionNode e, Set<String> assigned) {
+        if (e instanceof Constant) {
+            return false;
+        } else if (e instanceof Variable) {
+            return !assigned.contains(((Variable) e).name());
+        } else if (e instanceof UnaryOperation) {
+            return canFail(((UnaryOperation) e).operand(), assigned);
+        } else if (e instanceof BinaryOperation) {
+            BinaryOperation b = (BinaryOperation) e;
+            if (b.operator().equals(BinaryOperation.DIV) &&
+                    (!(b.right() instanceof Constant) || is(b.right(), 0))) {
+                return true;
+            }
+            return canFail(b.left(), assigned) || canFail(b.right(), assigned);
+        }
+        return true;
+    }
+
+    /**
+     * @param e an expression being dropped from the tree, so that each
+     *          node is counted at most once in the whole pass
+     * @return how many nodes it has
+     */
+    private static int size(ExpressionNode e) {
+        if (e instanceof UnaryOperation) {
+            return 1 + size(((UnaryOperation) e).operand());
+        } else if (e instanceof BinaryOperation) {
+            BinaryOperation b = (BinaryOperation) e;
+            return 1 + size(b.left()) + size(b.right());
+        }
+        return 1;
+    }
+}
@@ -1,6 +1,8 @@
 package dendron.tree;
 
+import dendron.machine.Code;
 import dendron.machine.Machine;
+import dendron.machine.RegisterCode;
 
 import java.util.*;
 
@@ -12,8 +14,10 @@ public class UnaryOperation implements ExpressionNode {
     public static final String NEG = "_";
     public static final String SQRT = "#";
     public static final Collection<String> OPERATORS = Arrays.asList(NEG, SQRT);
-    private String operation;
-    private ExpressionNode expr;
+    private final String operation;
+    private final ExpressionNode expr;
+    // The number of nodes on the longest path down to a leaf
+    private final int height;
 
     /**
      * @param operator String that will be passed in
@@ -23,7 +27,30 @@ public class UnaryOperation implements ExpressionNode {
         if (OPERATORS.contains(operator) && expr != null) {
             this.operation = operator;
             this.expr = expr;
+        } else {
+            this.operation = null;
+            this.expr = null;
         }
+        this.height = this.expr == null ? 1 : 1 + DeepExpressions.height(this.expr);
+    }
+
+    /**
+     * Make the node for an operation, of a subclass that computes
+     * that one operation, unless it is too deep to evaluate by recursion.
+     *
+     * @param operator one of {@link #OPERATORS}
+     * @param expr     the operand
+     * @return the node
+     */
+    public static UnaryOperation of(String operator, ExpressionNode expr) {
+        if (expr == null || DeepExpressions.height(expr) >= DeepExpressions.SHALLOW) {
+            return new UnaryOperation(operator, expr);
+        } else if (operator.equals(NEG)) {
+            return new Negate(expr);
+        } else if (operator.equals(SQRT)) {
+            return new SquareRoot(expr);
+        }
+        return new UnaryOperation(operator, expr);
     }
 
     /**
@@ -32,6 +59,9 @@ public class UnaryOperation implements ExpressionNode {
      * node's evaluate
      */
     public int evaluate(Map<String, Integer> symTab) {
+        if (height > DeepExpressions.SHALLOW) {
+            return DeepExpressions.evaluate(this, symTab);
+        }
         if (operation.equals(NEG)) {
             return -1 * expr.evaluate(symTab);
         } else if (operation.equals(SQRT)) {
@@ -40,34 +70,155 @@ public class UnaryOperation implements ExpressionNode {
         return Integer.MIN_VALUE;//ask prof
     }
 
+    /**
+     * @param env the program's variables
+     * @return the negation or the square root of the operand
+     */
+    @Override
+    public int evaluate(Environment env) {
+        if (height > DeepExpressions.SHALLOW) {
+            return DeepExpressions.evaluate(this, env);
+        }
+        return apply(expr.evaluate(env));
+    }
+
+    /**
+     * @param value the value of the operand
+     * @return the negation or the square root of the value
+     */
+    int apply(int value) {
+        return operation.equals(NEG) ? -value : (int) Math.sqrt(value);
+    }
+
+    /**
+     * @param env the program's variables, which the operand's variables
+     *            are given slots in
+     */
+    @Override
+    public void resolve(Environment env) {
+        if (height > DeepExpressions.SHALLOW) {
+            DeepExpressions.resolve(this, env);
+            return;
+        }
+        expr.resolve(env);
+    }
+
     /**
      * Printout of the expression.
      */
     public void infixDisplay() {
-
+        if (height > DeepExpressions.SHALLOW) {
+            DeepExpressions.infixDisplay(this);
+            return;
+        }
         System.out.print(this.operation);
         expr.infixDisplay();
     }
 
     /**
-     * @return the negation or sqrt instruction which gets added to the list of machine
-     * instructions
+     * @param code the program being built; the operand's instructions
+     *             are added, then the negation or square root
+     */
+    public void emit(Code code) {
+        if (height > DeepExpressions.SHALLOW) {
+            DeepExpressions.emit(this, code);
+            return;
+        }
+        expr.emit(code);
+        code.add(instruction());
+    }
+
+    /**
+     * @return the shared machine instruction for the operation
      */
-    public java.util.List<Machine.Instruction> emit() {
-        List instruction = new ArrayList();
-        instruction.addAll(expr.emit());
+    Machine.Instruction instruction() {
+        return operation.equals(NEG) ? Machine.NEGATE : Machine.SQUARE_ROOT;
+    }
 
-        Machine.Instruction negate = new Machine.Negate();
-        Machine.Instruction sqrt = new Machine.SquareRoot();
+    /**
+     * @param code the register program being built
+     * @return the temporary register holding the negation or square root
+     */
+    public int lower(RegisterCode code) {
+        int operand = expr.lower(code);
+        return code.unary(operation.equals(NEG) ? RegisterCode.NEG : RegisterCode.SQRT, operand);
+    }
 
+    /**
+     * @param code the closure program being built
+     * @return a closure computing the negation or square root
+     */
+    @Override
+    public Closures.Expression closure(Closures code) {
+        Closures.Expression operand = expr.closure(code);
         if (operation.equals(NEG)) {
-            instruction.add(negate);
-            return instruction;
-        } else if (operation.equals(SQRT)) {
-            instruction.add(sqrt);
-            return instruction;
+            return frame -> -operand.evaluate(frame);
+        }
+        return frame -> (int) Math.sqrt(operand.evaluate(frame));
+    }
+
+    /**
+     * @param code the pass being run
+     * @return the operation with its operand simplified, or something
+     * simpler still
+     */
+    @Override
+    public ExpressionNode simplify(Simplifier code) {
+        ExpressionNode operand = expr.simplify(code);
+        ExpressionNode simpler = code.unary(operation, operand);
+        if (simpler != null) {
+            return simpler;
+        }
+        return operand == expr ? this : of(operation, operand);
+    }
+
+    /**
+     * @return the number of nodes on the longest path from this one
+     * down to a leaf
+     */
+    int height() {
+        return height;
+    }
+
+    /**
+     * @return the operator
+     */
+    String operator() {
+        return operation;
+    }
+
+    /**
+     * @return the operand
+     */
+    ExpressionNode operand() {
+        return expr;
+    }
+
+    /**
+     * The negation of an operand.
+     */
+    static final class Negate extends UnaryOperation {
+        Negate(ExpressionNode expr) {
+            super(NEG, expr);
+        }
+
+        @Override
+        public int evaluate(Environment env) {
+            return -super.expr.evaluate(env);
         }
-        return null;
     }
 
+    /**
+     * The square root of an operand.
+     */
+    static final class SquareRoot extends UnaryOperation {
+        SquareRoot(ExpressionNode expr) {
+            super(SQRT, expr);
+        }
+
+        @Override
+        public int evaluate(Environment env) {
+            return (int) Math.sqrt(super.expr.evaluate(env));
+        }
+    }
 }
@@ -4,14 +4,15 @@ package dendron.tree;
  */
 
 import dendron.Errors;
-import dendron.machine.Machine;
+import dendron.machine.Code;
+import dendron.machine.RegisterCode;
 
-import java.util.ArrayList;
-import java.util.List;
 import java.util.Map;
 
 public class Variable implements ExpressionNode {
     private String name;
+    // Where the variable is in the Environment it was last resolved in
+    private int slot = -1;
 
     /**
      * @param name given the name a variable field is created.
@@ -32,6 +33,23 @@ public class Variable implements ExpressionNode {
         return symTab.get(name);
     }
 
+    /**
+     * @param env the program's variables
+     * @return the variable's value; an error is reported if it has none
+     */
+    @Override
+    public int evaluate(Environment env) {
+        return env.get(slot);
+    }
+
+    /**
+     * @param env the program's variables, which this one is given a slot in
+     */
+    @Override
+    public void resolve(Environment env) {
+        slot = env.slot(name);
+    }
+
     /**
      * printout of the variable
      */
@@ -41,13 +59,45 @@ public class Variable implements ExpressionNode {
     }
 
     /**
-     * @return return the list of machine instruction with the load instruction added.
+     * @param code the program being built, to which the variable's
+     *             load instruction is added
+     */
+    @Override
+    public void emit(Code code) {
+        code.add(code.load(name));
+    }
+
+    /**
+     * @param code the register program being built
+     * @return the register holding the variable
      */
     @Override
-    public List<Machine.Instruction> emit() {
-        List x = new ArrayList();
-        Machine.Load load = new Machine.Load(this.name);
-        x.add(load);
-        return x;
+    public int lower(RegisterCode code) {
+        return code.variable(name);
+    }
+
+    /**
+     * @param code the closure program being built
+     * @return a closure reading the variable's slot
+     */
+    @Override
+    public Closures.Expression closure(Closures code) {
+        return code.variable(name);
+    }
+
+    /**
+     * @param code the pass being run
+     * @return this variable, whose value is not known until the program runs
+     */
+    @Override
+    public ExpressionNode simplify(Simplifier code) {
+        return this;
+    }
+
+    /**
+     * @return the name of the variable
+     */
+    String name() {
+        return name;
     }
 }